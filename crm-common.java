@@ -0,0 +1,1440 @@
+// crm-common: shared jar for customer-service, marketing-service and gateway-service. Classes here are wired
+// through auto-configuration (META-INF/spring/...AutoConfiguration.imports), since the services only
+// component-scan their own packages.
+
+// ReplicationProperties.java
+package com.crm.common.routing;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "crm.replication")
+public class ReplicationProperties {
+    // Reads fall back to the primary once the replica is further behind than this
+    private long maxLagMs = 2000;
+    // How long a client's reads stay on the primary after its own write
+    private long stickyWindowMs = 5000;
+    private long heartbeatIntervalMs = 1000;
+    // Single-database services: leave the url unset to send everything to spring.datasource
+    private Replica replica = new Replica();
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+    }
+}
+
+// ReadYourWritesTracker.java
+package com.crm.common.routing;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import java.time.Duration;
+
+// The last write time travels in a cookie so any instance keeps the client's reads on the primary; instance clocks
+// must agree to well within the sticky window
+@RequiredArgsConstructor
+public class ReadYourWritesTracker {
+    public static final String COOKIE = "crm-last-write";
+    private static final String ATTRIBUTE = ReadYourWritesTracker.class.getName() + ".lastWrite";
+
+    private final ReplicationProperties properties;
+
+    public void recordWrite() {
+        ServletRequestAttributes attributes = currentRequest();
+        if (attributes == null || attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        attributes.setAttribute(ATTRIBUTE, now, RequestAttributes.SCOPE_REQUEST);
+        HttpServletResponse response = attributes.getResponse();
+        if (response != null && !response.isCommitted()) {
+            response.addHeader(HttpHeaders.SET_COOKIE, ResponseCookie.from(COOKIE, Long.toString(now))
+                    .httpOnly(true)
+                    .path("/")
+                    .sameSite("Lax")
+                    .maxAge(Duration.ofMillis(properties.getStickyWindowMs()))
+                    .build()
+                    .toString());
+        }
+    }
+
+    public boolean isSticky() {
+        ServletRequestAttributes attributes = currentRequest();
+        if (attributes == null) {
+            return false;
+        }
+        Long lastWrite = (Long) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (lastWrite == null) {
+            lastWrite = lastWriteCookie(attributes.getRequest());
+        }
+        // A value from the future is only honoured within the window, so a forged cookie cannot pin reads forever
+        return lastWrite != null
+                && Math.abs(System.currentTimeMillis() - lastWrite) < properties.getStickyWindowMs();
+    }
+
+    private static Long lastWriteCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Null outside a servlet request (scheduled tasks, startup)
+    private static ServletRequestAttributes currentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes servletAttributes ? servletAttributes : null;
+    }
+}
+
+// ReplicaLagMonitor.java
+package com.crm.common.routing;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Stamps replication_heartbeat on the primary and reads it back from the replica; the services' schemas create the
+// table. A replica whose lag cannot be read counts as lagging.
+@Slf4j
+@RequiredArgsConstructor
+public class ReplicaLagMonitor {
+    private final ReplicationProperties properties;
+    private final Map<String, JdbcTemplate[]> pairs = new ConcurrentHashMap<>();
+    private final Map<String, Long> lagMs = new ConcurrentHashMap<>();
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+    public void register(String name, DataSource primary, DataSource replica) {
+        pairs.put(name, new JdbcTemplate[] {new JdbcTemplate(primary), new JdbcTemplate(replica)});
+    }
+
+    public boolean isLagging(String name) {
+        Long lag = lagMs.get(name);
+        return lag == null || lag > properties.getMaxLagMs();
+    }
+
+    @Scheduled(fixedDelayString = "${crm.replication.heartbeat-interval-ms:1000}")
+    public void heartbeat() {
+        pairs.forEach((name, pair) -> {
+            long now = System.currentTimeMillis();
+            try {
+                if (pair[0].update("update replication_heartbeat set beat_at = ? where id = 1", now) == 0) {
+                    pair[0].update("insert into replication_heartbeat (id, beat_at) values (1, ?)", now);
+                }
+                Long beatAt = pair[1].queryForObject("select beat_at from replication_heartbeat where id = 1", Long.class);
+                lagMs.put(name, beatAt == null ? Long.MAX_VALUE : System.currentTimeMillis() - beatAt);
+                if (failing.remove(name)) {
+                    log.info("Replica lag check for {} recovered", name);
+                }
+            } catch (DataAccessException e) {
+                lagMs.remove(name);
+                if (failing.add(name)) {
+                    log.warn("Replica lag check failed for {}; its reads go to the primary until it succeeds: {}",
+                            name, e.getMessage());
+                } else {
+                    log.debug("Replica lag check still failing for {}: {}", name, e.getMessage());
+                }
+            }
+        });
+    }
+}
+
+// ReadWriteRoutingDataSource.java
+package com.crm.common.routing;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import javax.sql.DataSource;
+import java.util.Map;
+
+// Must sit behind a LazyConnectionDataSourceProxy so the read-only flag is set before the connection is chosen
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    enum Role { PRIMARY, REPLICA }
+
+    private final String name;
+    private final ReadYourWritesTracker readYourWrites;
+    private final ReplicaLagMonitor lagMonitor;
+
+    public ReadWriteRoutingDataSource(String name, DataSource primary, DataSource replica,
+                                      ReadYourWritesTracker readYourWrites, ReplicaLagMonitor lagMonitor) {
+        this.name = name;
+        this.readYourWrites = readYourWrites;
+        this.lagMonitor = lagMonitor;
+        setTargetDataSources(Map.of(Role.PRIMARY, primary, Role.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || readYourWrites.isSticky()
+                || lagMonitor.isLagging(name)) {
+            return Role.PRIMARY;
+        }
+        return Role.REPLICA;
+    }
+}
+
+// ReplicationAutoConfiguration.java
+package com.crm.common.routing;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+// Services build their own routing DataSource from these beans (ShardingConfig, DataSourceConfig)
+@AutoConfiguration
+@ConditionalOnClass({JdbcTemplate.class, HttpServletRequest.class})
+@EnableConfigurationProperties(ReplicationProperties.class)
+public class ReplicationAutoConfiguration {
+
+    @Bean
+    public ReadYourWritesTracker readYourWritesTracker(ReplicationProperties properties) {
+        return new ReadYourWritesTracker(properties);
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(ReplicationProperties properties) {
+        return new ReplicaLagMonitor(properties);
+    }
+
+    // The heartbeat is scheduled work and must start with the context under spring.main.lazy-initialization
+    @Bean
+    static LazyInitializationExcludeFilter eagerReplicaLagMonitor() {
+        return LazyInitializationExcludeFilter.forBeanTypes(ReplicaLagMonitor.class);
+    }
+}
+
+// LatencyAwareProperties.java
+package com.crm.common.loadbalancer;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "crm.loadbalancer")
+public class LatencyAwareProperties {
+    // Weight of the newest sample in the per-instance latency average
+    private double ewmaAlpha = 0.3;
+    private int failureThreshold = 5;
+    private long ejectionMs = 30000;
+    // Instances slower than this multiple of the median latency are skipped while enough others are healthy
+    private double outlierFactor = 3.0;
+    // Time constant with which an instance's latency average drifts back to the median while it gets no traffic,
+    // so a skipped outlier is tried again and its average can recover
+    private long decayMs = 10000;
+    // A request stops counting as in flight after this even if its completion is never reported (gateway cancels)
+    private long inFlightTimeoutMs = 30000;
+}
+
+// InstanceStats.java
+package com.crm.common.loadbalancer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class InstanceStats {
+    // Start times (System.nanoTime) of the requests in flight
+    private final Queue<Long> inFlight = new ConcurrentLinkedQueue<>();
+    private double ewmaNanos = -1;
+    private long lastSampleMillis;
+    private int consecutiveFailures;
+    private volatile long ejectedUntil;
+
+    public void start(long startNanos) {
+        inFlight.add(startNanos);
+    }
+
+    public synchronized void complete(long startNanos, boolean failed, LatencyAwareProperties properties) {
+        long latencyNanos = System.nanoTime() - startNanos;
+        inFlight.remove(startNanos);
+        ewmaNanos = ewmaNanos < 0 ? latencyNanos
+                : properties.getEwmaAlpha() * latencyNanos + (1 - properties.getEwmaAlpha()) * ewmaNanos;
+        lastSampleMillis = System.currentTimeMillis();
+        if (!failed) {
+            consecutiveFailures = 0;
+        } else if (++consecutiveFailures >= properties.getFailureThreshold()) {
+            consecutiveFailures = 0;
+            ejectedUntil = System.currentTimeMillis() + properties.getEjectionMs();
+        }
+    }
+
+    // Latency estimate x (in-flight + 1)
+    public synchronized double cost(double medianNanos, LatencyAwareProperties properties) {
+        return latencyNanos(medianNanos, properties.getDecayMs()) * (inFlight(properties.getInFlightTimeoutMs()) + 1);
+    }
+
+    public int inFlight(long timeoutMs) {
+        long expired = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        inFlight.removeIf(startNanos -> startNanos - expired < 0);
+        return inFlight.size();
+    }
+
+    // The EWMA moved towards the median by the time since the last sample; unmeasured instances get the median
+    public synchronized double latencyNanos(double medianNanos, long decayMs) {
+        if (ewmaNanos < 0) {
+            return medianNanos;
+        }
+        long idleMs = System.currentTimeMillis() - lastSampleMillis;
+        return medianNanos + (ewmaNanos - medianNanos) * Math.exp(-(double) idleMs / decayMs);
+    }
+
+    public synchronized double getEwmaNanos() {
+        return ewmaNanos;
+    }
+
+    public boolean isEjected() {
+        return System.currentTimeMillis() < ejectedUntil;
+    }
+}
+
+// InstanceStatsRegistry.java
+package com.crm.common.loadbalancer;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cloud.client.ServiceInstance;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Shared by every per-service load balancer context, so it lives in the application context
+@RequiredArgsConstructor
+public class InstanceStatsRegistry {
+    @Getter
+    private final LatencyAwareProperties properties;
+    private final Map<String, InstanceStats> stats = new ConcurrentHashMap<>();
+
+    public InstanceStats get(ServiceInstance instance) {
+        return stats.computeIfAbsent(key(instance), key -> new InstanceStats());
+    }
+
+    // Drops the service's instances that are no longer in its latest instance list
+    public void retain(String serviceId, List<ServiceInstance> instances) {
+        Set<String> live = instances.stream().map(InstanceStatsRegistry::key).collect(Collectors.toSet());
+        stats.keySet().removeIf(key -> key.startsWith(serviceId + "@") && !live.contains(key));
+    }
+
+    public int size() {
+        return stats.size();
+    }
+
+    private static String key(ServiceInstance instance) {
+        return instance.getServiceId() + "@" + instance.getHost() + ":" + instance.getPort();
+    }
+}
+
+// LatencyAwareLoadBalancer.java
+package com.crm.common.loadbalancer;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+// Power of two choices among instances that are neither ejected nor outliers; two random candidates rather than the
+// cheapest overall, so requests do not herd onto whichever instance looked fastest last
+public class LatencyAwareLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+    private final ObjectProvider<ServiceInstanceListSupplier> supplierProvider;
+    private final InstanceStatsRegistry registry;
+
+    public LatencyAwareLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> supplierProvider,
+                                    InstanceStatsRegistry registry) {
+        this.supplierProvider = supplierProvider;
+        this.registry = registry;
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = supplierProvider.getIfAvailable(NoopServiceInstanceListSupplier::new);
+        return supplier.get(request).next().map(this::choose);
+    }
+
+    private Response<ServiceInstance> choose(List<ServiceInstance> instances) {
+        if (instances.isEmpty()) {
+            return new EmptyResponse();
+        }
+        List<ServiceInstance> notEjected = instances.stream()
+                .filter(instance -> !registry.get(instance).isEjected())
+                .collect(Collectors.toList());
+        // Falls back to the full list rather than failing when everything is ejected
+        if (notEjected.isEmpty()) {
+            notEjected = instances;
+        }
+        double median = medianLatency(notEjected);
+        List<ServiceInstance> candidates = withoutOutliers(notEjected, median);
+        if (candidates.size() == 1) {
+            return new DefaultResponse(candidates.get(0));
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceInstance a = candidates.get(first);
+        ServiceInstance b = candidates.get(second);
+        LatencyAwareProperties properties = registry.getProperties();
+        return new DefaultResponse(registry.get(a).cost(median, properties) <= registry.get(b).cost(median, properties) ? a : b);
+    }
+
+    // Median of the measured averages; 1 ns when nothing is measured yet, so in-flight counts still decide
+    private double medianLatency(List<ServiceInstance> instances) {
+        double[] latencies = instances.stream()
+                .mapToDouble(instance -> registry.get(instance).getEwmaNanos())
+                .filter(latency -> latency >= 0)
+                .sorted()
+                .toArray();
+        return latencies.length == 0 ? 1 : latencies[latencies.length / 2];
+    }
+
+    private List<ServiceInstance> withoutOutliers(List<ServiceInstance> instances, double median) {
+        long measured = instances.stream().filter(instance -> registry.get(instance).getEwmaNanos() >= 0).count();
+        if (measured < 3) {
+            return instances;
+        }
+        double limit = median * registry.getProperties().getOutlierFactor();
+        long decayMs = registry.getProperties().getDecayMs();
+        List<ServiceInstance> fast = instances.stream()
+                .filter(instance -> registry.get(instance).latencyNanos(median, decayMs) <= limit)
+                .collect(Collectors.toList());
+        return fast.isEmpty() ? instances : fast;
+    }
+}
+
+// LatencyTrackingLifecycle.java
+package com.crm.common.loadbalancer;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.client.loadbalancer.TimedRequestContext;
+
+// Feeds request outcomes back into InstanceStats; called by both the gateway filter and Feign's load-balanced client
+@RequiredArgsConstructor
+public class LatencyTrackingLifecycle implements LoadBalancerLifecycle<Object, Object, ServiceInstance> {
+    private final InstanceStatsRegistry registry;
+
+    @Override
+    public void onStart(Request<Object> request) {
+    }
+
+    @Override
+    public void onStartRequest(Request<Object> request, Response<ServiceInstance> lbResponse) {
+        if (lbResponse.hasServer() && request.getContext() instanceof TimedRequestContext context) {
+            context.setRequestStartTime(System.nanoTime());
+            registry.get(lbResponse.getServer()).start(context.getRequestStartTime());
+        }
+    }
+
+    @Override
+    public void onComplete(CompletionContext<Object, ServiceInstance, Object> completionContext) {
+        Response<ServiceInstance> lbResponse = completionContext.getLoadBalancerResponse();
+        if (lbResponse == null || !lbResponse.hasServer()
+                || !(completionContext.getLoadBalancerRequest().getContext() instanceof TimedRequestContext context)
+                || context.getRequestStartTime() == 0) {
+            return;
+        }
+        boolean failed = completionContext.status() == CompletionContext.Status.FAILED
+                || (completionContext.getClientResponse() instanceof ResponseData response
+                && response.getHttpStatus() != null && response.getHttpStatus().is5xxServerError());
+        registry.get(lbResponse.getServer()).complete(context.getRequestStartTime(), failed, registry.getProperties());
+    }
+}
+
+// LatencyAwareLoadBalancerConfig.java (no @Configuration: loaded into each per-service load balancer context)
+package com.crm.common.loadbalancer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.reactive.context.ReactiveWebApplicationContext;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplierBuilder;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+public class LatencyAwareLoadBalancerConfig {
+
+    // Lookups are served from memory and the registry snapshot, never waiting on Eureka. The gateway discovers
+    // reactively; servlet services (Feign) use the blocking discovery client.
+    @Bean
+    public ServiceInstanceListSupplier snapshotServiceInstanceListSupplier(
+            ConfigurableApplicationContext context, DiscoverySnapshotStore store, InstanceStatsRegistry registry,
+            @Value("${crm.snapshot.registry-refresh-ms:5000}") long refreshIntervalMs) {
+        ServiceInstanceListSupplierBuilder builder = ServiceInstanceListSupplier.builder();
+        builder = context.getParent() instanceof ReactiveWebApplicationContext
+                ? builder.withDiscoveryClient()
+                : builder.withBlockingDiscoveryClient();
+        return new SnapshotServiceInstanceListSupplier(builder.build(context), store, registry, refreshIntervalMs);
+    }
+
+    @Bean
+    public ReactorLoadBalancer<ServiceInstance> latencyAwareLoadBalancer(Environment environment,
+                                                                         LoadBalancerClientFactory factory,
+                                                                         InstanceStatsRegistry registry) {
+        String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        return new LatencyAwareLoadBalancer(factory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class), registry);
+    }
+
+    @Bean
+    public LoadBalancerLifecycle<Object, Object, ServiceInstance> latencyTrackingLifecycle(InstanceStatsRegistry registry) {
+        return new LatencyTrackingLifecycle(registry);
+    }
+}
+
+// DiscoverySnapshotStore.java
+package com.crm.common.loadbalancer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Last-known-good instance lists per service, one JSON file each
+@Slf4j
+public class DiscoverySnapshotStore {
+    private record SnapshotInstance(String instanceId, String serviceId, String host, int port, boolean secure,
+                                    Map<String, String> metadata) {
+    }
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+
+    public DiscoverySnapshotStore(Path directory, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+    }
+
+    public List<ServiceInstance> load(String serviceId) {
+        Path file = file(serviceId);
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        try {
+            List<SnapshotInstance> instances = objectMapper.readValue(file.toFile(), new TypeReference<>() {
+            });
+            return instances.stream()
+                    .map(i -> (ServiceInstance) new DefaultServiceInstance(i.instanceId(), i.serviceId(), i.host(),
+                            i.port(), i.secure(), i.metadata()))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable registry snapshot {}", file, e);
+            return List.of();
+        }
+    }
+
+    public void save(String serviceId, List<ServiceInstance> instances) {
+        Path file = file(serviceId);
+        try {
+            Files.createDirectories(directory);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), instances.stream()
+                    .map(i -> new SnapshotInstance(i.getInstanceId(), i.getServiceId(), i.getHost(), i.getPort(),
+                            i.isSecure(), i.getMetadata()))
+                    .collect(Collectors.toList()));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot write registry snapshot {}", file, e);
+        }
+    }
+
+    private Path file(String serviceId) {
+        return directory.resolve("registry-" + serviceId + ".json");
+    }
+}
+
+// SnapshotServiceInstanceListSupplier.java
+package com.crm.common.loadbalancer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+// Answers from memory (seeded from the snapshot) and refreshes from discovery in the background
+@Slf4j
+public class SnapshotServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+    private final ServiceInstanceListSupplier delegate;
+    private final DiscoverySnapshotStore store;
+    private final InstanceStatsRegistry registry;
+    private final long refreshIntervalMs;
+    private final AtomicReference<List<ServiceInstance>> instances;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long lastRefresh;
+
+    public SnapshotServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, DiscoverySnapshotStore store,
+                                               InstanceStatsRegistry registry, long refreshIntervalMs) {
+        this.delegate = delegate;
+        this.store = store;
+        this.registry = registry;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.instances = new AtomicReference<>(store.load(delegate.getServiceId()));
+    }
+
+    @Override
+    public String getServiceId() {
+        return delegate.getServiceId();
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        List<ServiceInstance> current = instances.get();
+        if (current.isEmpty()) {
+            return delegate.get().take(1).doOnNext(this::update);
+        }
+        refreshInBackground();
+        return Flux.just(current);
+    }
+
+    private void refreshInBackground() {
+        if (System.currentTimeMillis() - lastRefresh < refreshIntervalMs || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        delegate.get().take(1)
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> {
+                    lastRefresh = System.currentTimeMillis();
+                    refreshing.set(false);
+                })
+                .subscribe(this::update, error -> log.debug("Discovery refresh failed for {}", getServiceId(), error));
+    }
+
+    // An empty answer usually means the registry is unreachable, so the last known instances are kept
+    private void update(List<ServiceInstance> fresh) {
+        if (fresh.isEmpty()) {
+            return;
+        }
+        List<ServiceInstance> previous = instances.getAndSet(fresh);
+        if (!keys(fresh).equals(keys(previous))) {
+            registry.retain(getServiceId(), fresh);
+            Schedulers.boundedElastic().schedule(() -> store.save(getServiceId(), fresh));
+        }
+    }
+
+    private static Set<String> keys(List<ServiceInstance> instances) {
+        return instances.stream()
+                .map(instance -> instance.getHost() + ":" + instance.getPort())
+                .collect(Collectors.toSet());
+    }
+}
+
+// LatencyAwareLoadBalancerAutoConfiguration.java
+package com.crm.common.loadbalancer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.context.annotation.Bean;
+import java.nio.file.Paths;
+
+// Replaces round-robin for every lb:// service the application calls, from Feign or gateway routes
+@AutoConfiguration
+@ConditionalOnClass(ReactorServiceInstanceLoadBalancer.class)
+@EnableConfigurationProperties(LatencyAwareProperties.class)
+@LoadBalancerClients(defaultConfiguration = LatencyAwareLoadBalancerConfig.class)
+public class LatencyAwareLoadBalancerAutoConfiguration {
+
+    @Bean
+    public InstanceStatsRegistry instanceStatsRegistry(LatencyAwareProperties properties) {
+        return new InstanceStatsRegistry(properties);
+    }
+
+    @Bean
+    public DiscoverySnapshotStore discoverySnapshotStore(@Value("${crm.snapshot.directory:snapshot}") String directory,
+                                                         ObjectMapper objectMapper) {
+        return new DiscoverySnapshotStore(Paths.get(directory), objectMapper);
+    }
+}
+
+// ConfigSnapshotEnvironmentPostProcessor.java (registered in META-INF/spring.factories)
+package com.crm.common.snapshot;
+
+import org.apache.commons.logging.Log;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.boot.logging.DeferredLogFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertiesPropertySource;
+import org.springframework.core.env.PropertySource;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.Set;
+
+// Saves the config server's properties at boot and stands in for them when the server does not answer
+public class ConfigSnapshotEnvironmentPostProcessor implements EnvironmentPostProcessor, Ordered {
+    public static final String SNAPSHOT_SOURCE = "configSnapshot";
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private final Log log;
+
+    public ConfigSnapshotEnvironmentPostProcessor(DeferredLogFactory logFactory) {
+        this.log = logFactory.getLog(ConfigSnapshotEnvironmentPostProcessor.class);
+    }
+
+    // Runs after ConfigDataEnvironmentPostProcessor has imported the config server
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        if (!environment.getProperty("spring.config.import", "").contains("configserver:")) {
+            return;
+        }
+        Path file = snapshotFile(environment);
+        try {
+            if (saveRemote(environment)) {
+                return;
+            }
+            if (!Files.exists(file)) {
+                log.warn("Config server unavailable and no snapshot at " + file + ", starting with local configuration only");
+                return;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+            PropertiesPropertySource snapshot = new PropertiesPropertySource(SNAPSHOT_SOURCE, properties);
+            String firstLocal = environment.getPropertySources().stream()
+                    .map(PropertySource::getName)
+                    .filter(name -> name.startsWith("Config resource"))
+                    .findFirst()
+                    .orElse(null);
+            if (firstLocal != null) {
+                environment.getPropertySources().addBefore(firstLocal, snapshot);
+            } else {
+                environment.getPropertySources().addLast(snapshot);
+            }
+            log.info("Config server unavailable, booting from snapshot " + file);
+        } catch (IOException e) {
+            log.warn("Cannot use config snapshot " + file, e);
+        }
+    }
+
+    // Saves the config server's properties, highest precedence first; returns false if none were loaded
+    public static boolean saveRemote(ConfigurableEnvironment environment) throws IOException {
+        Properties properties = new Properties();
+        boolean found = false;
+        for (PropertySource<?> source : environment.getPropertySources()) {
+            if (source.getName().startsWith("configserver:") && source instanceof EnumerablePropertySource<?> remote) {
+                found = true;
+                for (String name : remote.getPropertyNames()) {
+                    Object value = remote.getProperty(name);
+                    if (value != null) {
+                        properties.putIfAbsent(name, value.toString());
+                    }
+                }
+            }
+        }
+        if (!found) {
+            return false;
+        }
+        Path file = snapshotFile(environment);
+        Files.createDirectories(file.getParent());
+        Path temp = createOwnerOnly(file.resolveSibling(file.getFileName() + ".tmp"));
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            properties.store(writer, "Last known good configuration from the config server");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    // The snapshot includes credentials; created owner-only rather than narrowed afterwards, so they are never exposed
+    private static Path createOwnerOnly(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        try {
+            return Files.createFile(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system (Windows); fall back to the owner-only flags java.io can set
+            Files.createFile(file);
+            File plain = file.toFile();
+            if (!(plain.setReadable(false, false) && plain.setReadable(true, true)
+                    && plain.setWritable(false, false) && plain.setWritable(true, true))) {
+                throw new IOException("Cannot restrict " + file + " to its owner", e);
+            }
+            return file;
+        }
+    }
+
+    private static Path snapshotFile(Environment environment) {
+        return Paths.get(environment.getProperty("crm.snapshot.directory", "snapshot"),
+                "config-" + environment.getProperty("spring.application.name", "application") + ".properties");
+    }
+}
+
+// ConfigSnapshotReconciler.java
+package com.crm.common.snapshot;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.ConfigurableEnvironment;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Set;
+
+// After a boot from the config snapshot, keeps refreshing in the background until the config server answers
+@Slf4j
+@RequiredArgsConstructor
+public class ConfigSnapshotReconciler {
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    private final ConfigurableEnvironment environment;
+    private final ContextRefresher contextRefresher;
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        if (!environment.getPropertySources().contains(ConfigSnapshotEnvironmentPostProcessor.SNAPSHOT_SOURCE)) {
+            return;
+        }
+        Thread reconciler = new Thread(this::refreshUntilReachable, "config-snapshot-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    private void refreshUntilReachable() {
+        long backoffMs = 1000;
+        while (true) {
+            try {
+                if (configServerReachable()) {
+                    Set<String> changed = contextRefresher.refresh();
+                    if (ConfigSnapshotEnvironmentPostProcessor.saveRemote(environment)) {
+                        environment.getPropertySources().remove(ConfigSnapshotEnvironmentPostProcessor.SNAPSHOT_SOURCE);
+                        log.info("Reconciled with the config server, {} properties changed", changed.size());
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Config server still unavailable", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    // A refresh rebuilds the whole environment, so a plain request checks first that the server answers at all.
+    // Any answer below 500 counts, including 401 and 404 from servers without an open health endpoint.
+    boolean configServerReachable() throws InterruptedException {
+        String uri = environment.getProperty("spring.cloud.config.uri", "http://localhost:8888").split(",")[0].trim();
+        try {
+            HttpRequest probe = HttpRequest.newBuilder(URI.create(uri.replaceAll("/+$", "") + "/actuator/health"))
+                    .timeout(Duration.ofMillis(environment.getProperty("spring.cloud.config.request-read-timeout",
+                            Long.class, 2000L)))
+                    .build();
+            return httpClient.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() < 500;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
+
+// ConfigSnapshotAutoConfiguration.java
+package com.crm.common.snapshot;
+
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+@AutoConfiguration(after = RefreshAutoConfiguration.class)
+@ConditionalOnClass(ContextRefresher.class)
+@ConditionalOnBean(ContextRefresher.class)
+public class ConfigSnapshotAutoConfiguration {
+
+    @Bean
+    public ConfigSnapshotReconciler configSnapshotReconciler(ConfigurableEnvironment environment,
+                                                             ContextRefresher contextRefresher) {
+        return new ConfigSnapshotReconciler(environment, contextRefresher);
+    }
+}
+
+// ReadWriteRoutingDataSourceTest.java (src/test/java)
+package com.crm.common.routing;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import javax.sql.DataSource;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two H2 databases stand in for a primary and its replica; lag is simulated by writing the replica's heartbeat row
+class ReadWriteRoutingDataSourceTest {
+    private final ReplicationProperties properties = new ReplicationProperties();
+    private final ReplicaLagMonitor lagMonitor = new ReplicaLagMonitor(properties);
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private TransactionTemplate readOnly;
+    private TransactionTemplate readWrite;
+    private JdbcTemplate routed;
+
+    @BeforeEach
+    void setUp() {
+        DataSource primaryDataSource = database("primary");
+        DataSource replicaDataSource = database("replica");
+        primary = new JdbcTemplate(primaryDataSource);
+        replica = new JdbcTemplate(replicaDataSource);
+        lagMonitor.register("test", primaryDataSource, replicaDataSource);
+
+        DataSource routing = new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource("test",
+                primaryDataSource, replicaDataSource, new ReadYourWritesTracker(properties), lagMonitor));
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(routing);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+        routed = new JdbcTemplate(routing);
+    }
+
+    @AfterEach
+    void clearRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void readsGoToAReplicaThatIsCaughtUp() {
+        replicate(0);
+
+        assertThat(read(readOnly)).isEqualTo("replica");
+        assertThat(read(readWrite)).isEqualTo("primary");
+    }
+
+    @Test
+    void readsGoToThePrimaryWhileTheReplicaLags() {
+        replicate(properties.getMaxLagMs() + 1000);
+
+        assertThat(read(readOnly)).isEqualTo("primary");
+
+        replicate(0);
+
+        assertThat(read(readOnly)).isEqualTo("replica");
+    }
+
+    @Test
+    void readsGoToThePrimaryUntilTheReplicaHeartbeatCanBeRead() {
+        replica.execute("drop table replication_heartbeat");
+        lagMonitor.heartbeat();
+        lagMonitor.heartbeat();
+
+        assertThat(read(readOnly)).isEqualTo("primary");
+
+        replica.execute("create table replication_heartbeat (id integer primary key, beat_at bigint not null)");
+        replicate(0);
+
+        assertThat(read(readOnly)).isEqualTo("replica");
+    }
+
+    @Test
+    void readsStayOnThePrimaryWithinTheStickyWindowAfterAWrite() {
+        replicate(0);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(ReadYourWritesTracker.COOKIE, Long.toString(System.currentTimeMillis())));
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        assertThat(read(readOnly)).isEqualTo("primary");
+
+        request.setCookies(new Cookie(ReadYourWritesTracker.COOKIE,
+                Long.toString(System.currentTimeMillis() - properties.getStickyWindowMs() - 1000)));
+
+        assertThat(read(readOnly)).isEqualTo("replica");
+    }
+
+    // Runs a heartbeat, then copies the primary's stamp to the replica as if it arrived lagMs late
+    private void replicate(long lagMs) {
+        lagMonitor.heartbeat();
+        Long beatAt = primary.queryForObject("select beat_at from replication_heartbeat where id = 1", Long.class);
+        replica.update("delete from replication_heartbeat");
+        replica.update("insert into replication_heartbeat (id, beat_at) values (1, ?)", beatAt - lagMs);
+        lagMonitor.heartbeat();
+    }
+
+    private String read(TransactionTemplate template) {
+        return template.execute(status -> routed.queryForObject("select name from marker", String.class));
+    }
+
+    private static DataSource database(String name) {
+        DataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("create table marker (name varchar(20))");
+        jdbc.update("insert into marker (name) values (?)", name);
+        jdbc.execute("create table replication_heartbeat (id integer primary key, beat_at bigint not null)");
+        return dataSource;
+    }
+}
+
+// InstanceStatsTest.java (src/test/java)
+package com.crm.common.loadbalancer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InstanceStatsTest {
+    private final LatencyAwareProperties properties = new LatencyAwareProperties();
+
+    @Test
+    void completedRequestsLeaveFlight() {
+        InstanceStats stats = new InstanceStats();
+        long now = System.nanoTime();
+        stats.start(now);
+        stats.start(now);
+        stats.start(now + 1);
+
+        stats.complete(now, false, properties);
+
+        assertThat(stats.inFlight(properties.getInFlightTimeoutMs())).isEqualTo(2);
+    }
+
+    @Test
+    void requestsWithoutACompletionStopCountingAfterTheTimeout() {
+        InstanceStats stats = new InstanceStats();
+        long now = System.nanoTime();
+        stats.start(now - TimeUnit.MILLISECONDS.toNanos(properties.getInFlightTimeoutMs() + 1000));
+        stats.start(now);
+
+        assertThat(stats.inFlight(properties.getInFlightTimeoutMs())).isEqualTo(1);
+    }
+
+    @Test
+    void repeatedFailuresEjectTheInstance() {
+        InstanceStats stats = new InstanceStats();
+        for (int i = 0; i < properties.getFailureThreshold(); i++) {
+            assertThat(stats.isEjected()).isFalse();
+            long start = System.nanoTime();
+            stats.start(start);
+            stats.complete(start, true, properties);
+        }
+
+        assertThat(stats.isEjected()).isTrue();
+    }
+
+    @Test
+    void registryForgetsInstancesMissingFromTheLatestList() {
+        InstanceStatsRegistry registry = new InstanceStatsRegistry(properties);
+        ServiceInstance kept = instance("customer-service", 8081);
+        ServiceInstance gone = instance("customer-service", 8082);
+        ServiceInstance otherService = instance("auth-service", 8082);
+        InstanceStats keptStats = registry.get(kept);
+        registry.get(gone);
+        registry.get(otherService);
+
+        registry.retain("customer-service", List.of(kept));
+
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.get(kept)).isSameAs(keptStats);
+    }
+
+    static ServiceInstance instance(String serviceId, int port) {
+        return new DefaultServiceInstance(serviceId + "-" + port, serviceId, "localhost", port, false);
+    }
+}
+
+// LatencyAwareLoadBalancerTest.java (src/test/java)
+package com.crm.common.loadbalancer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.loadbalancer.support.ServiceInstanceListSuppliers;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyAwareLoadBalancerTest {
+    private static final String SERVICE = "customer-service";
+
+    private final LatencyAwareProperties properties = new LatencyAwareProperties();
+    private final InstanceStatsRegistry registry = new InstanceStatsRegistry(properties);
+    private final ServiceInstance a = InstanceStatsTest.instance(SERVICE, 8081);
+    private final ServiceInstance b = InstanceStatsTest.instance(SERVICE, 8082);
+    private final ServiceInstance c = InstanceStatsTest.instance(SERVICE, 8083);
+    private final LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer(
+            ServiceInstanceListSuppliers.toProvider(SERVICE, a, b, c), registry);
+
+    @Test
+    void outliersAreSkipped() {
+        sample(a, 5);
+        sample(b, 6);
+        sample(c, 100);
+
+        assertThat(choices(300)).doesNotContainKey(c);
+    }
+
+    @Test
+    void ejectedInstancesAreSkipped() {
+        for (int i = 0; i < properties.getFailureThreshold(); i++) {
+            long start = System.nanoTime();
+            registry.get(b).start(start);
+            registry.get(b).complete(start, true, properties);
+        }
+
+        assertThat(choices(300)).containsOnlyKeys(a, c);
+    }
+
+    @Test
+    void busyInstancesLoseToIdleOnes() {
+        sample(a, 5);
+        sample(b, 5);
+        sample(c, 5);
+        for (int i = 0; i < 5; i++) {
+            registry.get(c).start(System.nanoTime());
+        }
+
+        // c costs six times as much as either other candidate, so it loses every comparison
+        assertThat(choices(300)).doesNotContainKey(c);
+    }
+
+    @Test
+    void everyInstanceEjectedStillAnswers() {
+        for (ServiceInstance instance : new ServiceInstance[] {a, b, c}) {
+            for (int i = 0; i < properties.getFailureThreshold(); i++) {
+                long start = System.nanoTime();
+                registry.get(instance).start(start);
+                registry.get(instance).complete(start, true, properties);
+            }
+        }
+
+        assertThat(choices(30)).isNotEmpty();
+    }
+
+    private void sample(ServiceInstance instance, long latencyMs) {
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(latencyMs);
+        registry.get(instance).start(start);
+        registry.get(instance).complete(start, false, properties);
+    }
+
+    private Map<ServiceInstance, Integer> choices(int requests) {
+        Map<ServiceInstance, Integer> choices = new HashMap<>();
+        for (int i = 0; i < requests; i++) {
+            choices.merge(loadBalancer.choose(new DefaultRequest<>()).block().getServer(), 1, Integer::sum);
+        }
+        return choices;
+    }
+}
+
+// LoadBalancerBenchmark.java (src/test/java; run its main method)
+package com.crm.common.loadbalancer;
+
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.DefaultRequestContext;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.RoundRobinLoadBalancer;
+import org.springframework.cloud.loadbalancer.support.ServiceInstanceListSuppliers;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Client-observed latency against stub instances, one of them degraded, for round-robin and latency-aware selection
+public class LoadBalancerBenchmark {
+    private static final String SERVICE = "customer-service";
+    // Mean service time per instance; the last one is degraded
+    private static final int[] LATENCY_MS = {5, 5, 5, 5, 60};
+    private static final int CLIENTS = 16;
+    private static final int REQUESTS_PER_CLIENT = 400;
+
+    public static void main(String[] args) throws Exception {
+        List<HttpServer> servers = new ArrayList<>();
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (int latencyMs : LATENCY_MS) {
+            HttpServer server = stub(latencyMs);
+            servers.add(server);
+            instances.add(new DefaultServiceInstance(SERVICE + "-" + server.getAddress().getPort(), SERVICE,
+                    "localhost", server.getAddress().getPort(), false));
+        }
+        try {
+            ServiceInstance[] list = instances.toArray(new ServiceInstance[0]);
+            run("Warm-up", new RoundRobinLoadBalancer(ServiceInstanceListSuppliers.toProvider(SERVICE, list), SERVICE),
+                    null, instances);
+            run("Round-robin", new RoundRobinLoadBalancer(ServiceInstanceListSuppliers.toProvider(SERVICE, list), SERVICE),
+                    null, instances);
+            InstanceStatsRegistry registry = new InstanceStatsRegistry(new LatencyAwareProperties());
+            run("Latency-aware", new LatencyAwareLoadBalancer(ServiceInstanceListSuppliers.toProvider(SERVICE, list), registry),
+                    new LatencyTrackingLifecycle(registry), instances);
+        } finally {
+            for (HttpServer server : servers) {
+                server.stop(0);
+                ((ExecutorService) server.getExecutor()).shutdown();
+            }
+        }
+    }
+
+    private static void run(String label, ReactorServiceInstanceLoadBalancer balancer, LatencyTrackingLifecycle lifecycle,
+                            List<ServiceInstance> instances) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        HttpClient client = HttpClient.newBuilder().executor(executor).build();
+        long[][] latencies = new long[CLIENTS][REQUESTS_PER_CLIENT];
+        List<Map<ServiceInstance, Integer>> choices = new ArrayList<>();
+        Thread[] threads = new Thread[CLIENTS];
+        for (int t = 0; t < CLIENTS; t++) {
+            Map<ServiceInstance, Integer> chosenByThread = new HashMap<>();
+            choices.add(chosenByThread);
+            long[] threadLatencies = latencies[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+                    long start = System.nanoTime();
+                    Request<Object> request = new DefaultRequest<>(new DefaultRequestContext());
+                    Response<ServiceInstance> chosen = balancer.choose(request).block();
+                    if (lifecycle != null) {
+                        lifecycle.onStartRequest(request, chosen);
+                    }
+                    CompletionContext.Status status = call(client, chosen.getServer());
+                    if (lifecycle != null) {
+                        lifecycle.onComplete(new CompletionContext<>(status, request, chosen));
+                    }
+                    threadLatencies[i] = System.nanoTime() - start;
+                    chosenByThread.merge(chosen.getServer(), 1, Integer::sum);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        executor.shutdown();
+        if (label.equals("Warm-up")) {
+            return;
+        }
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        int degraded = choices.stream().mapToInt(map -> map.getOrDefault(instances.get(instances.size() - 1), 0)).sum();
+        System.out.printf("%-14s p50 %5.1f ms, p90 %5.1f ms, p99 %5.1f ms, max %5.1f ms; %4.1f%% of requests to the degraded instance%n",
+                label, all[all.length / 2] / 1e6, all[(int) (all.length * 0.9)] / 1e6,
+                all[(int) (all.length * 0.99)] / 1e6, all[all.length - 1] / 1e6, 100.0 * degraded / all.length);
+    }
+
+    private static CompletionContext.Status call(HttpClient client, ServiceInstance instance) {
+        try {
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(
+                    "http://localhost:" + instance.getPort() + "/customers")).build(), HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() < 500 ? CompletionContext.Status.SUCCESS : CompletionContext.Status.FAILED;
+        } catch (IOException e) {
+            return CompletionContext.Status.FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletionContext.Status.FAILED;
+        }
+    }
+
+    // Exponentially distributed service time around the mean, served by enough threads to never queue
+    private static HttpServer stub(int meanLatencyMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(CLIENTS));
+        server.createContext("/", exchange -> {
+            long sleepMicros = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanLatencyMs * 1000);
+            try {
+                TimeUnit.MICROSECONDS.sleep(sleepMicros);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+}
+
+// ConfigSnapshotReconcilerTest.java (src/test/java)
+package com.crm.common.snapshot;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConfigSnapshotReconcilerTest {
+    private final MockEnvironment environment = new MockEnvironment()
+            .withProperty("spring.cloud.config.request-read-timeout", "1000");
+    private HttpServer server;
+
+    @AfterEach
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void serverThatIsDownIsNotReachable() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        environment.setProperty("spring.cloud.config.uri", "http://localhost:" + port);
+
+        assertThat(new ConfigSnapshotReconciler(environment, null).configServerReachable()).isFalse();
+    }
+
+    @Test
+    void anyAnswerBelow500CountsAsReachable() throws Exception {
+        start(404);
+
+        assertThat(new ConfigSnapshotReconciler(environment, null).configServerReachable()).isTrue();
+    }
+
+    @Test
+    void serverErrorsAreNotReachable() throws Exception {
+        start(503);
+
+        assertThat(new ConfigSnapshotReconciler(environment, null).configServerReachable()).isFalse();
+    }
+
+    private void start(int status) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        environment.setProperty("spring.cloud.config.uri", "http://localhost:" + server.getAddress().getPort() + "/");
+    }
+}
+
+// META-INF/spring.factories
+org.springframework.boot.env.EnvironmentPostProcessor=com.crm.common.snapshot.ConfigSnapshotEnvironmentPostProcessor
+
+// META-INF/spring/org.springframework.boot.autoconfigure.AutoConfiguration.imports
+com.crm.common.routing.ReplicationAutoConfiguration
+com.crm.common.loadbalancer.LatencyAwareLoadBalancerAutoConfiguration
+com.crm.common.snapshot.ConfigSnapshotAutoConfiguration
+
+# dependencies in pom.xml include: spring-boot-autoconfigure, spring-jdbc, jakarta.servlet-api (provided), lombok,
+# spring-cloud-starter-loadbalancer, spring-cloud-context, jackson-databind; test: spring-boot-starter-test, h2
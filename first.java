@@ -4,9 +4,11 @@ package com.crm.customer;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableDiscoveryClient
+@EnableScheduling
 public class CustomerServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(CustomerServiceApplication.class, args);
@@ -18,6 +20,8 @@ package com.crm.customer.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
+import org.springframework.data.domain.Persistable;
 import java.util.List;
 
 @Entity
@@ -25,25 +29,71 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-public class Customer {
+public class Customer implements Persistable<Long> {
+    // Assigned by CustomerIdGenerator so the id, and with it the shard, is known before the insert
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     private String name;
     private String email;
     private String phone;
     
+    // Loaded for up to 100 customers per query when pages and search results read it
     @ElementCollection
+    @BatchSize(size = 100)
     private List<String> interactions;
+
+    // Change counter, bumped under the row lock by every write so audit history can be ordered per customer
+    private Long revision;
+
+    // Set for freshly created customers so save() issues a plain INSERT (failing on a duplicate id) instead of a merge
+    @Transient
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean newEntity;
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    public long nextRevision() {
+        revision = (revision == null ? 0 : revision) + 1;
+        return revision;
+    }
+
+    @PostPersist
+    @PostLoad
+    void markNotNew() {
+        newEntity = false;
+    }
 }
 
 // CustomerRepository.java
 package com.crm.customer.repository;
 
 import com.crm.customer.entity.Customer;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.util.List;
+import java.util.Optional;
 
 public interface CustomerRepository extends JpaRepository<Customer, Long> {
+    List<Customer> findByIdGreaterThanOrderByIdAsc(Long afterId, Pageable pageable);
+
+    @Query("select c from Customer c where c.id > :afterId and (lower(c.name) like lower(concat('%', :query, '%')) "
+            + "or lower(c.email) like lower(concat('%', :query, '%'))) order by c.id")
+    List<Customer> search(@Param("query") String query, @Param("afterId") Long afterId, Pageable pageable);
+
+    // Full listings that include interactions, in one query per shard
+    @Query("select distinct c from Customer c left join fetch c.interactions")
+    List<Customer> findAllWithInteractions();
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<Customer> findWithLockById(Long id);
 }
 
 // CustomerDTO.java
@@ -64,16 +114,45 @@ public class CustomerDTO {
     private List<String> interactions;
 }
 
+// CustomerProjectionDTO.java
+package com.crm.customer.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+import java.util.List;
+import java.util.Set;
+
+// Response for ?fields=...; unrequested fields stay null and are left out of the payload
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CustomerProjectionDTO {
+    public static final Set<String> FIELDS = Set.of("id", "name", "email", "phone", "interactions");
+
+    private Long id;
+    private String name;
+    private String email;
+    private String phone;
+    private List<String> interactions;
+}
+
 // CustomerService.java
 package com.crm.customer.service;
 
 import com.crm.customer.dto.CustomerDTO;
+import com.crm.customer.dto.CustomerProjectionDTO;
 import java.util.List;
+import java.util.Set;
 
 public interface CustomerService {
     CustomerDTO createCustomer(CustomerDTO customerDTO);
     CustomerDTO getCustomerById(Long id);
     List<CustomerDTO> getAllCustomers();
+    List<CustomerProjectionDTO> getCustomerProjections(Set<String> fields);
+    List<CustomerDTO> getCustomersPage(Long afterId, int limit);
+    List<CustomerDTO> searchCustomers(String query, Long afterId, int limit);
     CustomerDTO updateCustomer(Long id, CustomerDTO customerDTO);
     void deleteCustomer(Long id);
 }
@@ -81,14 +160,27 @@ public interface CustomerService {
 // CustomerServiceImpl.java
 package com.crm.customer.service.impl;
 
+import com.crm.customer.audit.AuditRecord;
+import com.crm.customer.audit.CustomerAuditLog;
 import com.crm.customer.dto.CustomerDTO;
+import com.crm.customer.dto.CustomerProjectionDTO;
 import com.crm.customer.entity.Customer;
 import com.crm.customer.repository.CustomerRepository;
 import com.crm.customer.service.CustomerService;
+import com.crm.customer.sharding.CustomerIdGenerator;
+import com.crm.customer.sharding.ShardTemplate;
 import lombok.RequiredArgsConstructor;
 import org.modelmapper.ModelMapper;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -96,58 +188,167 @@ import java.util.stream.Collectors;
 public class CustomerServiceImpl implements CustomerService {
     private final CustomerRepository repository;
     private final ModelMapper modelMapper;
+    private final ShardTemplate shards;
+    private final CustomerIdGenerator idGenerator;
+    private final CustomerAuditLog auditLog;
 
     @Override
     public CustomerDTO createCustomer(CustomerDTO dto) {
         Customer customer = modelMapper.map(dto, Customer.class);
-        return modelMapper.map(repository.save(customer), CustomerDTO.class);
+        customer.setId(idGenerator.nextId());
+        customer.setNewEntity(true);
+        long revision = customer.nextRevision();
+        CustomerDTO created = shards.write(shards.shardFor(customer.getId()),
+                () -> modelMapper.map(repository.save(customer), CustomerDTO.class));
+        auditLog.append(created.getId(), revision, AuditRecord.Operation.CREATE, created);
+        return created;
     }
 
     @Override
     public CustomerDTO getCustomerById(Long id) {
-        Customer customer = repository.findById(id).orElseThrow();
-        return modelMapper.map(customer, CustomerDTO.class);
+        return onCustomerShard(id, true, c -> modelMapper.map(c, CustomerDTO.class));
     }
 
     @Override
     public List<CustomerDTO> getAllCustomers() {
-        return repository.findAll().stream()
-                .map(c -> modelMapper.map(c, CustomerDTO.class))
-                .collect(Collectors.toList());
+        return scatterById(shard -> repository.findAllWithInteractions(), c -> modelMapper.map(c, CustomerDTO.class));
+    }
+
+    // Projections are ordered by the entity id even when the id itself was not requested
+    @Override
+    public List<CustomerProjectionDTO> getCustomerProjections(Set<String> fields) {
+        boolean withInteractions = fields.contains("interactions");
+        return scatterById(shard -> withInteractions ? repository.findAllWithInteractions() : repository.findAll(),
+                c -> project(c, fields));
+    }
+
+    // Copies only the requested fields, so the lazy interactions collection is not loaded unless asked for
+    private CustomerProjectionDTO project(Customer customer, Set<String> fields) {
+        CustomerProjectionDTO dto = new CustomerProjectionDTO();
+        if (fields.contains("id")) dto.setId(customer.getId());
+        if (fields.contains("name")) dto.setName(customer.getName());
+        if (fields.contains("email")) dto.setEmail(customer.getEmail());
+        if (fields.contains("phone")) dto.setPhone(customer.getPhone());
+        if (fields.contains("interactions")) dto.setInteractions(new ArrayList<>(customer.getInteractions()));
+        return dto;
+    }
+
+    // Every shard returns its own first `limit` rows after the cursor; the merged head is the global page
+    @Override
+    public List<CustomerDTO> getCustomersPage(Long afterId, int limit) {
+        long cursor = afterId == null ? 0L : afterId;
+        return scatterById(shard -> repository.findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, limit)),
+                c -> modelMapper.map(c, CustomerDTO.class))
+                .stream().limit(limit).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<CustomerDTO> searchCustomers(String query, Long afterId, int limit) {
+        long cursor = afterId == null ? 0L : afterId;
+        return scatterById(shard -> repository.search(query, cursor, PageRequest.of(0, limit)),
+                c -> modelMapper.map(c, CustomerDTO.class))
+                .stream().limit(limit).collect(Collectors.toList());
     }
 
     @Override
     public CustomerDTO updateCustomer(Long id, CustomerDTO dto) {
-        Customer existing = repository.findById(id).orElseThrow();
-        existing.setName(dto.getName());
-        existing.setEmail(dto.getEmail());
-        existing.setPhone(dto.getPhone());
-        existing.setInteractions(dto.getInteractions());
-        return modelMapper.map(repository.save(existing), CustomerDTO.class);
+        Revised updated = onCustomerShard(id, false, existing -> {
+            existing.setName(dto.getName());
+            existing.setEmail(dto.getEmail());
+            existing.setPhone(dto.getPhone());
+            existing.setInteractions(dto.getInteractions());
+            long revision = existing.nextRevision();
+            return new Revised(revision, modelMapper.map(repository.save(existing), CustomerDTO.class));
+        });
+        auditLog.append(id, updated.revision(), AuditRecord.Operation.UPDATE, updated.customer());
+        return updated.customer();
     }
 
     @Override
     public void deleteCustomer(Long id) {
-        repository.deleteById(id);
+        long revision = onCustomerShard(id, false, existing -> {
+            long next = existing.nextRevision();
+            repository.delete(existing);
+            return next;
+        });
+        auditLog.append(id, revision, AuditRecord.Operation.DELETE, null);
+    }
+
+    // Looks on the owning shard first; while a rebalance is running the row may still sit on its previous shard.
+    // Writes lock the row, so concurrent changes to one customer get their revisions in commit order.
+    private <T> T onCustomerShard(Long id, boolean readOnly, Function<Customer, T> action) {
+        String owner = shards.shardFor(id);
+        Optional<T> result = onShard(owner, id, readOnly, action);
+        if (result.isPresent()) {
+            return result.get();
+        }
+        return shards.getShards().stream()
+                .filter(shard -> !shard.equals(owner))
+                .map(shard -> onShard(shard, id, readOnly, action))
+                .flatMap(Optional::stream)
+                .findFirst()
+                // The rebalancer may have moved the row to its owner while the other shards were searched
+                .or(() -> onShard(owner, id, readOnly, action))
+                .orElseThrow(() -> new NoSuchElementException("Customer " + id + " not found"));
+    }
+
+    private <T> Optional<T> onShard(String shard, Long id, boolean readOnly, Function<Customer, T> action) {
+        return readOnly
+                ? shards.read(shard, () -> repository.findById(id).map(action))
+                : shards.write(shard, () -> repository.findWithLockById(id).map(action));
+    }
+
+    // Runs the query on every shard and merges the mapped rows in id order. A customer the rebalancer is moving
+    // can briefly exist on two shards; the owning shard's copy wins since that is where its writes go.
+    private <T> List<T> scatterById(Function<String, List<Customer>> query, Function<Customer, T> mapper) {
+        Map<Long, ShardRow<T>> byId = new TreeMap<>();
+        for (ShardRow<T> row : shards.scatter(shard -> query.apply(shard).stream()
+                .map(c -> new ShardRow<>(shard, c.getId(), mapper.apply(c)))
+                .collect(Collectors.toList()))) {
+            byId.merge(row.id(), row, (kept, other) -> shards.shardFor(other.id()).equals(other.shard()) ? other : kept);
+        }
+        return byId.values().stream().map(ShardRow::value).collect(Collectors.toList());
+    }
+
+    private record ShardRow<T>(String shard, Long id, T value) {
+    }
+
+    private record Revised(long revision, CustomerDTO customer) {
     }
 }
 
 // CustomerController.java
 package com.crm.customer.controller;
 
+import com.crm.customer.audit.AuditRecord;
+import com.crm.customer.audit.CustomerAuditLog;
+import com.crm.customer.config.WebConfig;
 import com.crm.customer.dto.CustomerDTO;
+import com.crm.customer.dto.CustomerProjectionDTO;
 import com.crm.customer.service.CustomerService;
+import com.crm.customer.sharding.ShardRebalancer;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/customers")
 @RequiredArgsConstructor
 public class CustomerController {
     private final CustomerService customerService;
+    private final ShardRebalancer shardRebalancer;
+    private final CustomerAuditLog auditLog;
+
+    // Every shard returns up to `limit` rows per page request, so the page size is capped
+    static final int MAX_PAGE_LIMIT = 500;
+    static final String AUDIT_NODE_HEADER = "X-Audit-Node";
 
     @PostMapping
     @PreAuthorize("hasRole('ADMIN')")
@@ -155,10 +356,40 @@ public class CustomerController {
         return ResponseEntity.ok(customerService.createCustomer(dto));
     }
 
-    @GetMapping
+    // Accept: application/x-jackson-smile selects the binary encoding; ?fields=id,email limits the payload
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, WebConfig.APPLICATION_SMILE_VALUE})
+    @PreAuthorize("hasAnyRole('ADMIN', 'SALES', 'SUPPORT')")
+    public ResponseEntity<List<?>> getAllCustomers(@RequestParam(required = false) Set<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return ResponseEntity.ok(customerService.getAllCustomers());
+        }
+        if (!CustomerProjectionDTO.FIELDS.containsAll(fields)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "fields must be a subset of " + CustomerProjectionDTO.FIELDS);
+        }
+        return ResponseEntity.ok(customerService.getCustomerProjections(fields));
+    }
+
+    // Keyset pagination: pass the last id of the previous page as `after`
+    @GetMapping("/page")
+    @PreAuthorize("hasAnyRole('ADMIN', 'SALES', 'SUPPORT')")
+    public ResponseEntity<List<CustomerDTO>> getCustomersPage(@RequestParam(required = false) Long after,
+                                                              @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(customerService.getCustomersPage(after, pageLimit(limit)));
+    }
+
+    @GetMapping("/search")
     @PreAuthorize("hasAnyRole('ADMIN', 'SALES', 'SUPPORT')")
-    public ResponseEntity<List<CustomerDTO>> getAllCustomers() {
-        return ResponseEntity.ok(customerService.getAllCustomers());
+    public ResponseEntity<List<CustomerDTO>> searchCustomers(@RequestParam String q,
+                                                             @RequestParam(required = false) Long after,
+                                                             @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(customerService.searchCustomers(q, after, pageLimit(limit)));
+    }
+
+    @PostMapping("/admin/rebalance")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Integer> rebalanceShards() {
+        return ResponseEntity.ok(shardRebalancer.rebalance());
     }
 
     @GetMapping("/{id}")
@@ -167,6 +398,16 @@ public class CustomerController {
         return ResponseEntity.ok(customerService.getCustomerById(id));
     }
 
+    // Each instance keeps its own audit log, so this is the history of changes made through the instance named in
+    // X-Audit-Node (see README "Customer audit history")
+    @GetMapping("/{id}/history")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<AuditRecord>> getCustomerHistory(@PathVariable Long id) {
+        return ResponseEntity.ok()
+                .header(AUDIT_NODE_HEADER, auditLog.getNode())
+                .body(auditLog.history(id).collect(Collectors.toList()));
+    }
+
     @PutMapping("/{id}")
     @PreAuthorize("hasAnyRole('ADMIN', 'SALES')")
     public ResponseEntity<CustomerDTO> updateCustomer(@PathVariable Long id, @RequestBody CustomerDTO dto) {
@@ -179,6 +420,1782 @@ public class CustomerController {
         customerService.deleteCustomer(id);
         return ResponseEntity.noContent().build();
     }
+
+    private static int pageLimit(int limit) {
+        if (limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be at least 1");
+        }
+        return Math.min(limit, MAX_PAGE_LIMIT);
+    }
+}
+
+// ShardProperties.java
+package com.crm.customer.sharding;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "crm.sharding")
+public class ShardProperties {
+    // Node ids are leased per instance from the first shard (see NodeIdLease); a lease not renewed in time is freed
+    private long nodeLeaseSeconds = 60;
+    private int virtualNodes = 128;
+    private int rebalanceBatchSize = 500;
+    private List<Shard> shards = new ArrayList<>();
+
+    @Data
+    public static class Shard {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+        // Optional read replica; credentials default to the primary's
+        private String replicaUrl;
+        private String replicaUsername;
+        private String replicaPassword;
+    }
+}
+
+// ShardContext.java
+package com.crm.customer.sharding;
+
+public final class ShardContext {
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static String get() {
+        return CURRENT.get();
+    }
+
+    public static void set(String shard) {
+        if (shard == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(shard);
+        }
+    }
+}
+
+// ShardRoutingDataSource.java
+package com.crm.customer.sharding;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.get();
+    }
+}
+
+// ConsistentHashRouter.java
+package com.crm.customer.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+public class ConsistentHashRouter {
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final List<String> shards;
+
+    public ConsistentHashRouter(List<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard must be configured");
+        }
+        this.shards = List.copyOf(shards);
+        for (String shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    public String shardFor(Long customerId) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash("customer-" + customerId));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
+
+// NodeIdLease.java
+package com.crm.customer.sharding;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import javax.sql.DataSource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Leases this instance's id generator node id from customer_node_lease on the first shard. Ids stop as soon as
+// the lease runs out unrenewed, so a node id taken over by another instance is never used by two at once.
+@Slf4j
+@Component
+public class NodeIdLease {
+    static final int MAX_NODE_ID = 0x3FF;
+
+    private final JdbcTemplate jdbc;
+    private final long leaseMs;
+    private final String owner;
+    private volatile int nodeId = -1;
+    private volatile long validUntil;
+
+    public NodeIdLease(DataSource dataSource, ShardProperties properties) {
+        // Outside a ShardTemplate call the routing data source resolves to the first shard's primary
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.leaseMs = properties.getNodeLeaseSeconds() * 1000;
+        this.owner = hostName() + "/" + UUID.randomUUID();
+    }
+
+    @PostConstruct
+    public void claim() {
+        long now = System.currentTimeMillis();
+        Map<Integer, Long> leases = new HashMap<>();
+        jdbc.query("select node_id, expires_at from customer_node_lease",
+                rs -> { leases.put(rs.getInt(1), rs.getLong(2)); });
+        for (int candidate = 0; candidate <= MAX_NODE_ID; candidate++) {
+            Long expiresAt = leases.get(candidate);
+            if (expiresAt != null && expiresAt >= now) {
+                continue;
+            }
+            if (tryClaim(candidate, now)) {
+                nodeId = candidate;
+                validUntil = now + leaseMs;
+                log.info("Claimed id generator node {} as {}", candidate, owner);
+                return;
+            }
+        }
+        throw new IllegalStateException("No free id generator node id in customer_node_lease; all "
+                + (MAX_NODE_ID + 1) + " are leased");
+    }
+
+    // Node id for the current lease; refuses once the lease may already have been handed to another instance
+    public int nodeId() {
+        if (nodeId < 0 || System.currentTimeMillis() >= validUntil) {
+            throw new IllegalStateException("Id generator node lease is not held; refusing to generate ids");
+        }
+        return nodeId;
+    }
+
+    @Scheduled(fixedDelayString = "#{${crm.sharding.node-lease-seconds:60} * 1000 / 3}")
+    public void renew() {
+        if (nodeId < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            if (jdbc.update("update customer_node_lease set expires_at = ? where node_id = ? and owner = ?",
+                    now + leaseMs, nodeId, owner) == 1) {
+                validUntil = now + leaseMs;
+                return;
+            }
+            log.error("Id generator node {} was taken over by another instance", nodeId);
+            nodeId = -1;
+        } catch (DataAccessException e) {
+            // Ids keep flowing until validUntil; later renewals may still succeed
+            log.warn("Renewing id generator node {} failed: {}", nodeId, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        if (nodeId >= 0) {
+            jdbc.update("delete from customer_node_lease where node_id = ? and owner = ?", nodeId, owner);
+        }
+    }
+
+    private boolean tryClaim(int candidate, long now) {
+        if (jdbc.update("update customer_node_lease set owner = ?, expires_at = ? where node_id = ? and expires_at < ?",
+                owner, now + leaseMs, candidate, now) == 1) {
+            return true;
+        }
+        try {
+            return jdbc.update("insert into customer_node_lease (node_id, owner, expires_at) values (?, ?, ?)",
+                    candidate, owner, now + leaseMs) == 1;
+        } catch (DataIntegrityViolationException e) {
+            // Another instance claimed it first
+            return false;
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown-host";
+        }
+    }
+}
+
+// CustomerIdGenerator.java
+package com.crm.customer.sharding;
+
+import org.springframework.stereotype.Component;
+
+// 41 bits of milliseconds since 2024-01-01, 10 bits of node id, 12 bits of sequence
+@Component
+public class CustomerIdGenerator {
+    private static final long EPOCH = 1704067200000L;
+    private static final long MAX_SEQUENCE = 0xFFF;
+
+    private final NodeIdLease nodeLease;
+    private long lastMillis = -1L;
+    private long sequence;
+
+    public CustomerIdGenerator(NodeIdLease nodeLease) {
+        this.nodeLease = nodeLease;
+    }
+
+    public synchronized long nextId() {
+        long nodeId = nodeLease.nodeId();
+        // Never step backwards if the wall clock does
+        long now = Math.max(System.currentTimeMillis(), lastMillis);
+        if (now == lastMillis) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                while (now <= lastMillis) {
+                    now = System.currentTimeMillis();
+                }
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMillis = now;
+        return ((now - EPOCH) << 22) | (nodeId << 12) | sequence;
+    }
+}
+
+// ShardTemplate.java
+package com.crm.customer.sharding;
+
+import com.crm.common.routing.ReadYourWritesTracker;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Runs repository work in its own transaction on a chosen shard, suspending any transaction the caller is in
+@Component
+public class ShardTemplate {
+    private final ConsistentHashRouter router;
+    private final TransactionTemplate readTemplate;
+    private final TransactionTemplate writeTemplate;
+    private final ExecutorService shardExecutor;
+    private final ReadYourWritesTracker readYourWrites;
+
+    public ShardTemplate(ConsistentHashRouter router, PlatformTransactionManager transactionManager,
+                         @Qualifier("shardExecutor") ExecutorService shardExecutor,
+                         ReadYourWritesTracker readYourWrites) {
+        this.router = router;
+        this.readYourWrites = readYourWrites;
+        this.readTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readTemplate.setReadOnly(true);
+        this.writeTemplate = new TransactionTemplate(transactionManager);
+        this.writeTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.shardExecutor = shardExecutor;
+    }
+
+    public String shardFor(Long customerId) {
+        return router.shardFor(customerId);
+    }
+
+    public List<String> getShards() {
+        return router.getShards();
+    }
+
+    public <T> T read(String shard, Supplier<T> action) {
+        return execute(shard, readTemplate, action);
+    }
+
+    public <T> T write(String shard, Supplier<T> action) {
+        T result = execute(shard, writeTemplate, action);
+        readYourWrites.recordWrite();
+        return result;
+    }
+
+    // Queries every shard in parallel and concatenates the results; ordering is left to the caller
+    public <T> List<T> scatter(Function<String, List<T>> perShard) {
+        // Workers see the caller's request so replica routing can apply read-your-writes stickiness
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        List<CompletableFuture<List<T>>> futures = router.getShards().stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> {
+                    RequestContextHolder.setRequestAttributes(request);
+                    try {
+                        return read(shard, () -> perShard.apply(shard));
+                    } finally {
+                        RequestContextHolder.resetRequestAttributes();
+                    }
+                }, shardExecutor))
+                .collect(Collectors.toList());
+        return futures.stream()
+                .flatMap(future -> future.join().stream())
+                .collect(Collectors.toList());
+    }
+
+    private <T> T execute(String shard, TransactionTemplate template, Supplier<T> action) {
+        String previous = ShardContext.get();
+        ShardContext.set(shard);
+        try {
+            return template.execute(status -> action.get());
+        } finally {
+            ShardContext.set(previous);
+        }
+    }
+}
+
+// ShardingConfig.java
+package com.crm.customer.sharding;
+
+import com.crm.common.routing.ReadWriteRoutingDataSource;
+import com.crm.common.routing.ReadYourWritesTracker;
+import com.crm.common.routing.ReplicaLagMonitor;
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.jdbc.DatabaseDriver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+@Configuration
+@EnableConfigurationProperties(ShardProperties.class)
+public class ShardingConfig {
+
+    @Bean
+    public ConsistentHashRouter consistentHashRouter(ShardProperties properties) {
+        return new ConsistentHashRouter(properties.getShards().stream()
+                .map(ShardProperties.Shard::getName)
+                .collect(Collectors.toList()), properties.getVirtualNodes());
+    }
+
+    // Statements outside a ShardTemplate call (e.g. schema update at boot) go to the first shard
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardProperties properties, ReadYourWritesTracker readYourWrites,
+                                 ReplicaLagMonitor lagMonitor) {
+        Map<Object, Object> targets = new LinkedHashMap<>();
+        for (ShardProperties.Shard shard : properties.getShards()) {
+            DataSource primary = DataSourceBuilder.create()
+                    .url(shard.getUrl())
+                    .username(shard.getUsername())
+                    .password(shard.getPassword())
+                    .driverClassName(shard.getDriverClassName())
+                    .build();
+            migrate(shard, primary);
+            if (shard.getReplicaUrl() == null) {
+                targets.put(shard.getName(), primary);
+                continue;
+            }
+            DataSource replica = DataSourceBuilder.create()
+                    .url(shard.getReplicaUrl())
+                    .username(shard.getReplicaUsername() != null ? shard.getReplicaUsername() : shard.getUsername())
+                    .password(shard.getReplicaPassword() != null ? shard.getReplicaPassword() : shard.getPassword())
+                    .driverClassName(shard.getDriverClassName())
+                    .build();
+            lagMonitor.register(shard.getName(), primary, replica);
+            targets.put(shard.getName(),
+                    new ReadWriteRoutingDataSource(shard.getName(), primary, replica, readYourWrites, lagMonitor));
+        }
+        ShardRoutingDataSource routing = new ShardRoutingDataSource();
+        routing.setTargetDataSources(targets);
+        routing.setDefaultTargetDataSource(targets.values().iterator().next());
+        routing.afterPropertiesSet();
+        // Defers the physical connection until the first statement, after the shard has been chosen
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService shardExecutor(ShardProperties properties) {
+        return Executors.newFixedThreadPool(Math.max(2, properties.getShards().size() * 2));
+    }
+
+    // Runs before anything uses the shard; replicas receive the schema through replication.
+    // Databases whose customer tables came from ddl-auto are baselined at V1 and only get the later migrations.
+    private static void migrate(ShardProperties.Shard shard, DataSource primary) {
+        Flyway.configure()
+                .dataSource(primary)
+                .locations("classpath:db/migration/" + DatabaseDriver.fromJdbcUrl(shard.getUrl()).getId())
+                .baselineOnMigrate(true)
+                .load()
+                .migrate();
+    }
+}
+
+// ShardRebalancer.java
+package com.crm.customer.sharding;
+
+import com.crm.customer.entity.Customer;
+import com.crm.customer.repository.CustomerRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+// Moves customers whose owning shard changed (e.g. after adding a shard) while the service stays online
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ShardRebalancer {
+    private final ShardTemplate shards;
+    private final CustomerRepository repository;
+    private final ShardProperties properties;
+
+    public synchronized int rebalance() {
+        int moved = 0;
+        for (String source : shards.getShards()) {
+            long after = 0L;
+            List<Long> batch;
+            do {
+                long cursor = after;
+                batch = shards.read(source, () -> repository
+                        .findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, properties.getRebalanceBatchSize()))
+                        .stream()
+                        .map(Customer::getId)
+                        .collect(Collectors.toList()));
+                for (Long id : batch) {
+                    String target = shards.shardFor(id);
+                    if (!target.equals(source) && move(id, source, target)) {
+                        moved++;
+                    }
+                    after = id;
+                }
+            } while (batch.size() == properties.getRebalanceBatchSize());
+        }
+        log.info("Shard rebalance moved {} customers", moved);
+        return moved;
+    }
+
+    // The old row stays locked until the copy has committed, so no write can land on it in between. Writes
+    // waiting for that lock find the row gone and continue on the owning shard.
+    private boolean move(Long id, String source, String target) {
+        return shards.write(source, () -> repository.findWithLockById(id)
+                .map(locked -> {
+                    Customer copy = detach(locked);
+                    if (!shards.write(target, () -> copyTo(copy))) {
+                        return false;
+                    }
+                    repository.delete(locked);
+                    return true;
+                })
+                .orElse(false));
+    }
+
+    // A row already on the owning shard is left by a move interrupted after its copy committed. Writes have gone to
+    // it since, so it wins unless the old row has a newer revision, in which case both changed and neither is dropped.
+    private boolean copyTo(Customer copy) {
+        Optional<Customer> existing = repository.findWithLockById(copy.getId());
+        if (existing.isEmpty()) {
+            copy.setNewEntity(true);
+            repository.save(copy);
+            return true;
+        }
+        long ownerRevision = Objects.requireNonNullElse(existing.get().getRevision(), 0L);
+        long oldRevision = Objects.requireNonNullElse(copy.getRevision(), 0L);
+        if (ownerRevision >= oldRevision) {
+            return true;
+        }
+        log.error("Customer {} has revision {} on its owning shard but {} on its previous one; leaving both rows for review",
+                copy.getId(), ownerRevision, oldRevision);
+        return false;
+    }
+
+    private static Customer detach(Customer customer) {
+        return Customer.builder()
+                .id(customer.getId())
+                .name(customer.getName())
+                .email(customer.getEmail())
+                .phone(customer.getPhone())
+                .interactions(customer.getInteractions() == null ? null : new ArrayList<>(customer.getInteractions()))
+                .revision(customer.getRevision())
+                .build();
+    }
+}
+
+// AuditRecord.java
+package com.crm.customer.audit;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class AuditRecord {
+    public enum Operation { CREATE, UPDATE, DELETE }
+
+    private long sequence;
+    private long timestamp;
+    private Long customerId;
+    // Customer.revision after the change; assigned under the row lock, so it orders one customer's changes
+    private long revision;
+    private Operation operation;
+    // Customer state after the change as JSON; null for deletes
+    @JsonRawValue
+    private String payload;
+}
+
+// AuditProperties.java
+package com.crm.customer.audit;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "crm.audit")
+public class AuditProperties {
+    private String directory = "audit-log";
+    private int segmentSize = 64 * 1024 * 1024;
+    private int queueCapacity = 65536;
+    private int maxBatch = 1024;
+    // Sealed segments whose newest record is older than this are deleted; 0 keeps them forever
+    private int retentionDays = 0;
+    // Names this instance in history responses; defaults to the host name
+    private String node;
+}
+
+// AuditSegment.java
+package com.crm.customer.audit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// One preallocated log file of [int length][int crc32][payload] frames, named after its first sequence. Each customer
+// maps to the range from their first to their last frame; once sealed the ranges live in a sorted .idx file instead.
+class AuditSegment implements Closeable {
+    private static final int HEADER_BYTES = 8;
+    // Frame header plus sequence, timestamp, customer id, revision, operation and payload length
+    private static final int FRAME_OVERHEAD = HEADER_BYTES + 8 + 8 + 8 + 8 + 1 + 4;
+    private static final int INDEX_MAGIC = 0x41494458;
+    // Magic, last sequence, last timestamp and entry count, then entries of customer id, range start and range end
+    private static final int INDEX_HEADER_BYTES = 4 + 8 + 8 + 4;
+    private static final int INDEX_ENTRY_BYTES = 8 + 4 + 4;
+
+    private final Path path;
+    private final long baseSequence;
+    private final FileChannel channel;
+    // Null once sealed, after which lookups search the index file; readers keep the map they started with
+    private volatile Map<Long, int[]> customerRanges;
+    private final List<long[]> pendingIndex = new ArrayList<>();
+    // Null once sealed; readers hold their own reference, so a mapping stays valid until they are done with it
+    private volatile MappedByteBuffer buffer;
+    private int position;
+    private int committedPosition;
+    private long lastSequence;
+    private long committedSequence;
+    private long pendingTimestamp;
+    private volatile long lastTimestamp;
+    private volatile int indexEntries;
+
+    AuditSegment(Path path, int size) throws IOException {
+        this.path = path;
+        this.baseSequence = baseSequence(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.customerRanges = new ConcurrentHashMap<>();
+        recover();
+    }
+
+    private AuditSegment(Path path, long lastSequence, long lastTimestamp, int indexEntries) {
+        this.path = path;
+        this.baseSequence = baseSequence(path);
+        this.channel = null;
+        this.lastSequence = lastSequence;
+        this.committedSequence = lastSequence;
+        this.lastTimestamp = lastTimestamp;
+        this.indexEntries = indexEntries;
+    }
+
+    // Opens a segment that filled up before a restart from its index file, scanning it only when the index is missing
+    static AuditSegment sealed(Path path, int size) throws IOException {
+        Path indexPath = indexPath(path);
+        if (Files.exists(indexPath)) {
+            try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES);
+                readFully(index, header, 0);
+                int entries = header.getInt(20);
+                if (header.getInt(0) == INDEX_MAGIC
+                        && index.size() == INDEX_HEADER_BYTES + (long) entries * INDEX_ENTRY_BYTES) {
+                    return new AuditSegment(path, header.getLong(4), header.getLong(12), entries);
+                }
+            }
+        }
+        AuditSegment segment = new AuditSegment(path, size);
+        segment.seal();
+        return segment;
+    }
+
+    static Path indexPath(Path segment) {
+        String fileName = segment.getFileName().toString();
+        return segment.resolveSibling(fileName.substring(0, fileName.indexOf('.')) + ".idx");
+    }
+
+    static int frameSize(String json) {
+        return FRAME_OVERHEAD + (json == null ? 0 : json.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    // Stops at the first empty, corrupt or out-of-sequence frame; anything after it is a torn batch and is overwritten
+    private void recover() {
+        lastSequence = baseSequence - 1;
+        int offset = 0;
+        AuditRecord record;
+        while ((record = readFrame(buffer, offset)) != null && record.getSequence() == lastSequence + 1) {
+            int end = frameEnd(buffer, offset);
+            index(record.getCustomerId(), offset, end);
+            lastSequence = record.getSequence();
+            lastTimestamp = record.getTimestamp();
+            offset = end;
+        }
+        position = offset;
+        committedPosition = offset;
+        committedSequence = lastSequence;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getLastSequence() {
+        return committedSequence;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    // Called by the single writer thread only; returns false when the segment is full
+    boolean append(AuditRecord record) {
+        byte[] payload = encode(record);
+        if (position + HEADER_BYTES + payload.length > buffer.capacity()) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.put(position + HEADER_BYTES, payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, payload.length);
+        pendingIndex.add(new long[] {record.getCustomerId(), position, position + HEADER_BYTES + payload.length});
+        position += HEADER_BYTES + payload.length;
+        lastSequence = record.getSequence();
+        pendingTimestamp = record.getTimestamp();
+        return true;
+    }
+
+    // Group commit: one force for the whole batch, after which its records become visible to readers
+    void commit() {
+        buffer.force();
+        for (long[] entry : pendingIndex) {
+            index(entry[0], (int) entry[1], (int) entry[2]);
+        }
+        pendingIndex.clear();
+        committedPosition = position;
+        committedSequence = lastSequence;
+        if (pendingTimestamp != 0) {
+            lastTimestamp = pendingTimestamp;
+        }
+    }
+
+    // Forgets frames appended since the last commit; the writer appends the same records again on retry
+    void rollback() {
+        pendingIndex.clear();
+        position = committedPosition;
+        lastSequence = committedSequence;
+    }
+
+    void seal() throws IOException {
+        Map<Long, int[]> ranges = customerRanges;
+        if (ranges != null) {
+            indexEntries = writeIndex(ranges);
+            customerRanges = null;
+        }
+        buffer = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // Written to a temporary file and moved into place, so an index that exists is always complete
+    private int writeIndex(Map<Long, int[]> ranges) throws IOException {
+        List<Long> customerIds = new ArrayList<>(ranges.keySet());
+        customerIds.sort(null);
+        ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_BYTES + customerIds.size() * INDEX_ENTRY_BYTES);
+        index.putInt(INDEX_MAGIC).putLong(committedSequence).putLong(lastTimestamp).putInt(customerIds.size());
+        for (Long customerId : customerIds) {
+            int[] range = ranges.get(customerId);
+            index.putLong(customerId).putInt(range[0]).putInt(range[1]);
+        }
+        index.flip();
+        Path indexPath = indexPath(path);
+        Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (index.hasRemaining()) {
+                out.write(index);
+            }
+            out.force(true);
+        }
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return customerIds.size();
+    }
+
+    Stream<AuditRecord> history(Long customerId) {
+        Map<Long, int[]> ranges = customerRanges;
+        int[] range = ranges != null ? ranges.get(customerId) : lookup(customerId);
+        if (range == null) {
+            return Stream.empty();
+        }
+        ByteBuffer frames = read(range[0], range[1]);
+        return Stream.iterate(0, offset -> offset < frames.limit(), offset -> frameEnd(frames, offset))
+                .map(offset -> readFrame(frames, offset))
+                .takeWhile(record -> record != null)
+                .filter(record -> customerId.equals(record.getCustomerId()));
+    }
+
+    // Binary search over the sorted entries of the index file
+    private int[] lookup(Long customerId) {
+        try (FileChannel index = FileChannel.open(indexPath(path), StandardOpenOption.READ)) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            int low = 0;
+            int high = indexEntries - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                entry.clear();
+                readFully(index, entry, INDEX_HEADER_BYTES + (long) middle * INDEX_ENTRY_BYTES);
+                int compared = Long.compare(entry.getLong(0), customerId);
+                if (compared == 0) {
+                    return new int[] {entry.getInt(8), entry.getInt(12)};
+                }
+                if (compared < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return null;
+        } catch (NoSuchFileException e) {
+            // Deleted by retention after the lookup started
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer read(int start, int end) {
+        MappedByteBuffer mapped = buffer;
+        if (mapped != null) {
+            return mapped.slice(start, end - start);
+        }
+        ByteBuffer frames = ByteBuffer.allocate(end - start);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            readFully(file, frames, start);
+        } catch (NoSuchFileException e) {
+            // Deleted by retention after the lookup started
+            return ByteBuffer.allocate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        frames.flip();
+        return frames;
+    }
+
+    // Fills the buffer from the given file position, stopping early only at the end of the file
+    private static void readFully(FileChannel file, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining() && file.read(target, position + target.position()) >= 0) {
+            // keep reading until the range is complete or the file ends
+        }
+    }
+
+    private void index(long customerId, int start, int end) {
+        customerRanges.merge(customerId, new int[] {start, end}, (existing, added) -> new int[] {existing[0], added[1]});
+    }
+
+    private static long baseSequence(Path path) {
+        String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.indexOf('.')));
+    }
+
+    private static int frameEnd(ByteBuffer frames, int offset) {
+        return offset + HEADER_BYTES + frames.getInt(offset);
+    }
+
+    private static AuditRecord readFrame(ByteBuffer frames, int offset) {
+        if (offset + HEADER_BYTES > frames.limit()) {
+            return null;
+        }
+        int length = frames.getInt(offset);
+        if (length <= 0 || offset + HEADER_BYTES + length > frames.limit()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        frames.get(offset + HEADER_BYTES, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != frames.getInt(offset + 4)) {
+            return null;
+        }
+        return decode(payload);
+    }
+
+    private static byte[] encode(AuditRecord record) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(record.getSequence());
+            out.writeLong(record.getTimestamp());
+            out.writeLong(record.getCustomerId());
+            out.writeLong(record.getRevision());
+            out.writeByte(record.getOperation().ordinal());
+            byte[] json = record.getPayload() == null ? new byte[0] : record.getPayload().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(json.length);
+            out.write(json);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static AuditRecord decode(byte[] payload) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        AuditRecord record = new AuditRecord();
+        record.setSequence(in.getLong());
+        record.setTimestamp(in.getLong());
+        record.setCustomerId(in.getLong());
+        record.setRevision(in.getLong());
+        record.setOperation(AuditRecord.Operation.values()[in.get()]);
+        int jsonLength = in.getInt();
+        if (jsonLength > 0) {
+            record.setPayload(new String(payload, in.position(), jsonLength, StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
+
+// CustomerAuditLog.java
+package com.crm.customer.audit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Write-behind: callers enqueue and one writer thread group-commits batches, retrying failed ones until written
+@Slf4j
+@Component
+@EnableConfigurationProperties(AuditProperties.class)
+public class CustomerAuditLog {
+    private static final long RETRY_BASE_MS = 100;
+    private static final long RETRY_MAX_MS = 5000;
+    private static final int SHUTDOWN_ATTEMPTS = 5;
+
+    private record Change(long timestamp, Long customerId, long revision, AuditRecord.Operation operation,
+                          String payload) {
+    }
+
+    private final AuditProperties properties;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<Change> queue;
+    private final List<AuditSegment> segments = new CopyOnWriteArrayList<>();
+    private volatile AuditSegment active;
+    private Path directory;
+    private String node;
+    private long nextSequence;
+    private Thread writer;
+    private volatile boolean running;
+
+    public CustomerAuditLog(AuditProperties properties, ObjectMapper objectMapper) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        node = properties.getNode() != null ? properties.getNode() : hostName();
+        directory = Paths.get(properties.getDirectory());
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> logs = files.filter(f -> f.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+            // Only the last segment can still take records; the others open from their index files
+            for (int i = 0; i < logs.size(); i++) {
+                active = i == logs.size() - 1
+                        ? new AuditSegment(logs.get(i), properties.getSegmentSize())
+                        : AuditSegment.sealed(logs.get(i), properties.getSegmentSize());
+                segments.add(active);
+            }
+        }
+        if (active == null) {
+            nextSequence = 1;
+            roll();
+        } else {
+            nextSequence = active.getLastSequence() + 1;
+        }
+        running = true;
+        writer = new Thread(this::run, "customer-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Serializes on the caller, so bad state fails the call; blocks only while the queue is full
+    public void append(Long customerId, long revision, AuditRecord.Operation operation, Object state) {
+        String payload = toJson(state);
+        if (AuditSegment.frameSize(payload) > properties.getSegmentSize()) {
+            throw new IllegalArgumentException("Audit record for customer " + customerId + " exceeds the segment size");
+        }
+        Change change = new Change(System.currentTimeMillis(), customerId, revision, operation, payload);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(change);
+                break;
+            } catch (InterruptedException e) {
+                // The change is already committed, so its record must still be written; re-assert the interrupt after
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    // Ordered by revision: concurrent changes to one customer can reach the queue out of order
+    public Stream<AuditRecord> history(Long customerId) {
+        return List.copyOf(segments).stream()
+                .flatMap(segment -> segment.history(customerId))
+                .sorted(Comparator.comparingLong(AuditRecord::getRevision));
+    }
+
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.HOURS)
+    public void enforceRetention() {
+        if (properties.getRetentionDays() <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(properties.getRetentionDays());
+        for (AuditSegment segment : segments) {
+            if (segment == active || segment.getLastTimestamp() >= cutoff) {
+                continue;
+            }
+            segments.remove(segment);
+            try {
+                Files.deleteIfExists(segment.getPath());
+                Files.deleteIfExists(AuditSegment.indexPath(segment.getPath()));
+                log.info("Deleted audit segment {} past the {} day retention", segment.getPath(), properties.getRetentionDays());
+            } catch (IOException e) {
+                log.warn("Could not delete expired audit segment {}: {}", segment.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
+        List<Change> batch = new ArrayList<>(properties.getMaxBatch());
+        int failures = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Change first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, properties.getMaxBatch() - 1);
+                }
+                writeBatch(batch);
+                failures = 0;
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException | RuntimeException e) {
+                active.rollback();
+                failures++;
+                log.error("Failed to write {} audit records (attempt {}), retrying", batch.size(), failures, e);
+                if (!running && failures >= SHUTDOWN_ATTEMPTS) {
+                    log.error("Giving up on {} unwritten audit records at shutdown", batch.size() + queue.size());
+                    return;
+                }
+                try {
+                    Thread.sleep(Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(failures, 6)));
+                } catch (InterruptedException interrupted) {
+                    running = false;
+                }
+            }
+        }
+    }
+
+    // Commits records from the head of the batch and removes them from it, rolling to a new segment when full
+    private void writeBatch(List<Change> batch) throws IOException {
+        while (!batch.isEmpty()) {
+            int appended = 0;
+            while (appended < batch.size() && active.append(toRecord(batch.get(appended), nextSequence + appended))) {
+                appended++;
+            }
+            active.commit();
+            nextSequence += appended;
+            batch.subList(0, appended).clear();
+            if (!batch.isEmpty()) {
+                roll();
+            }
+        }
+    }
+
+    private static AuditRecord toRecord(Change change, long sequence) {
+        return AuditRecord.builder()
+                .sequence(sequence)
+                .timestamp(change.timestamp())
+                .customerId(change.customerId())
+                .revision(change.revision())
+                .operation(change.operation())
+                .payload(change.payload())
+                .build();
+    }
+
+    private String toJson(Object state) {
+        if (state == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(state);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize audit state", e);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown-host";
+        }
+    }
+
+    // The previous segment is sealed so only the active one stays mapped
+    private void roll() throws IOException {
+        AuditSegment previous = active;
+        active = new AuditSegment(directory.resolve(String.format("%020d.log", nextSequence)), properties.getSegmentSize());
+        segments.add(active);
+        if (previous != null) {
+            previous.seal();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        writer.join();
+        for (AuditSegment segment : segments) {
+            segment.close();
+        }
+    }
+}
+
+// FastStartConfig.java
+package com.crm.customer.config;
+
+import com.crm.customer.audit.CustomerAuditLog;
+import com.crm.customer.sharding.NodeIdLease;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Beans that must start with the context even under spring.main.lazy-initialization (fast-start profile):
+// scheduled tasks and the audit writer never run if their bean is only created on first use, and a missing
+// id generator node lease must fail startup rather than the first create
+@Configuration
+public class FastStartConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter eagerBackgroundBeans() {
+        return (beanName, beanDefinition, beanType) -> CustomerAuditLog.class.isAssignableFrom(beanType)
+                || NodeIdLease.class.isAssignableFrom(beanType);
+    }
+}
+
+// WebConfig.java
+package com.crm.customer.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    // Appended after the JSON converter so clients sending Accept: */* keep getting JSON
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new MappingJackson2SmileHttpMessageConverter());
+    }
+}
+
+// ShardingIntegrationTest.java (src/test/java)
+package com.crm.customer.sharding;
+
+import com.crm.customer.dto.CustomerDTO;
+import com.crm.customer.entity.Customer;
+import com.crm.customer.repository.CustomerRepository;
+import com.crm.customer.service.CustomerService;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two embedded H2 shards, each migrated from db/migration/h2 like a fresh install
+@SpringBootTest(properties = {
+        "spring.cloud.config.enabled=false",
+        "spring.config.import=",
+        "eureka.client.enabled=false",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "crm.sharding.shards[0].name=shard-0",
+        "crm.sharding.shards[0].url=jdbc:h2:mem:shard-0;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+        "crm.sharding.shards[0].username=sa",
+        "crm.sharding.shards[0].password=",
+        "crm.sharding.shards[0].driver-class-name=org.h2.Driver",
+        "crm.sharding.shards[1].name=shard-1",
+        "crm.sharding.shards[1].url=jdbc:h2:mem:shard-1;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+        "crm.sharding.shards[1].username=sa",
+        "crm.sharding.shards[1].password=",
+        "crm.sharding.shards[1].driver-class-name=org.h2.Driver",
+        "crm.audit.directory=${java.io.tmpdir}/customer-audit-${random.uuid}",
+        "crm.snapshot.directory=${java.io.tmpdir}/customer-snapshot-${random.uuid}"
+})
+class ShardingIntegrationTest {
+    @TestConfiguration
+    static class Beans {
+        @Bean
+        ModelMapper modelMapper() {
+            return new ModelMapper();
+        }
+    }
+
+    @Autowired
+    private CustomerService customerService;
+    @Autowired
+    private CustomerRepository repository;
+    @Autowired
+    private ShardTemplate shards;
+    @Autowired
+    private ShardRebalancer rebalancer;
+    @Autowired
+    private CustomerIdGenerator idGenerator;
+
+    @Test
+    void createsEachCustomerOnItsOwningShardOnly() {
+        List<Long> ids = create(40);
+
+        for (Long id : ids) {
+            String owner = shards.shardFor(id);
+            assertThat(find(owner, id)).isPresent();
+            assertThat(find(other(owner), id)).isEmpty();
+        }
+        assertThat(ids.stream().map(shards::shardFor).distinct()).containsExactlyInAnyOrder("shard-0", "shard-1");
+    }
+
+    @Test
+    void keysetPagesMergeTheShardsInIdOrder() {
+        List<Long> created = create(30);
+
+        List<Long> paged = new ArrayList<>();
+        List<CustomerDTO> page = customerService.getCustomersPage(null, 7);
+        while (!page.isEmpty()) {
+            page.forEach(customer -> paged.add(customer.getId()));
+            page = customerService.getCustomersPage(paged.get(paged.size() - 1), 7);
+        }
+
+        assertThat(paged).isSorted().doesNotHaveDuplicates().containsAll(created);
+    }
+
+    @Test
+    void rebalanceMovesCustomersToTheirOwningShard() {
+        Customer customer = misplaced("Moved");
+
+        rebalancer.rebalance();
+
+        String owner = shards.shardFor(customer.getId());
+        assertThat(find(other(owner), customer.getId())).isEmpty();
+        assertThat(find(owner, customer.getId())).get()
+                .satisfies(moved -> {
+                    assertThat(moved.getName()).isEqualTo("Moved");
+                    assertThat(moved.getInteractions()).containsExactly("webinar", "trial");
+                    assertThat(moved.getRevision()).isEqualTo(1L);
+                });
+    }
+
+    @Test
+    void rebalanceKeepsUpdatesMadeWhileItRuns() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            customers.add(misplaced("Round 0"));
+        }
+        int rounds = 5;
+        CompletableFuture<Void> updates = CompletableFuture.runAsync(() -> {
+            for (int round = 1; round <= rounds; round++) {
+                for (Customer customer : customers) {
+                    customerService.updateCustomer(customer.getId(), CustomerDTO.builder()
+                            .name("Round " + round)
+                            .interactions(new ArrayList<>(List.of("round-" + round)))
+                            .build());
+                }
+            }
+        });
+        while (!updates.isDone()) {
+            rebalancer.rebalance();
+        }
+        updates.join();
+        rebalancer.rebalance();
+
+        for (Customer customer : customers) {
+            String owner = shards.shardFor(customer.getId());
+            assertThat(find(other(owner), customer.getId())).isEmpty();
+            assertThat(find(owner, customer.getId())).get()
+                    .satisfies(current -> {
+                        assertThat(current.getName()).isEqualTo("Round " + rounds);
+                        assertThat(current.getRevision()).isEqualTo(1L + rounds);
+                    });
+        }
+    }
+
+    @Test
+    void copyLeftOnTheOwningShardByAnInterruptedMoveWins() {
+        Customer stale = misplaced("Stale");
+        Customer current = copy(stale, "Current", 3L);
+        shards.write(shards.shardFor(stale.getId()), () -> repository.save(current));
+
+        rebalancer.rebalance();
+
+        String owner = shards.shardFor(stale.getId());
+        assertThat(find(other(owner), stale.getId())).isEmpty();
+        assertThat(find(owner, stale.getId())).get().extracting(Customer::getName).isEqualTo("Current");
+    }
+
+    @Test
+    void copiesThatBothChangedAreLeftForReview() {
+        Customer changedAtSource = misplaced("Changed at source");
+        shards.write(other(shards.shardFor(changedAtSource.getId())), () -> repository.findWithLockById(changedAtSource.getId())
+                .map(locked -> {
+                    locked.nextRevision();
+                    return repository.save(locked);
+                }));
+        Customer olderCopy = copy(changedAtSource, "Older copy", 1L);
+        shards.write(shards.shardFor(changedAtSource.getId()), () -> repository.save(olderCopy));
+
+        rebalancer.rebalance();
+
+        String owner = shards.shardFor(changedAtSource.getId());
+        assertThat(find(owner, changedAtSource.getId())).get().extracting(Customer::getName).isEqualTo("Older copy");
+        assertThat(find(other(owner), changedAtSource.getId())).get().extracting(Customer::getName)
+                .isEqualTo("Changed at source");
+    }
+
+    private List<Long> create(int count) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(customerService.createCustomer(CustomerDTO.builder()
+                    .name("Customer " + i)
+                    .email("customer" + i + "@example.com")
+                    .interactions(List.of("newsletter"))
+                    .build()).getId());
+        }
+        return ids;
+    }
+
+    // Written to the shard that does not own the id, as if the shard list had changed since
+    private Customer misplaced(String name) {
+        Customer customer = Customer.builder()
+                .id(idGenerator.nextId())
+                .name(name)
+                .interactions(List.of("webinar", "trial"))
+                .revision(1L)
+                .newEntity(true)
+                .build();
+        shards.write(other(shards.shardFor(customer.getId())), () -> repository.save(customer));
+        return customer;
+    }
+
+    private static Customer copy(Customer customer, String name, long revision) {
+        return Customer.builder()
+                .id(customer.getId())
+                .name(name)
+                .interactions(new ArrayList<>(customer.getInteractions()))
+                .revision(revision)
+                .newEntity(true)
+                .build();
+    }
+
+    private Optional<Customer> find(String shard, Long id) {
+        return shards.read(shard, () -> repository.findById(id).map(customer -> {
+            customer.setInteractions(new ArrayList<>(customer.getInteractions()));
+            return customer;
+        }));
+    }
+
+    private String other(String shard) {
+        return shards.getShards().stream().filter(name -> !name.equals(shard)).collect(Collectors.toList()).get(0);
+    }
+}
+
+// AuditSegmentTest.java (src/test/java)
+package com.crm.customer.audit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuditSegmentTest {
+    private static final int SIZE = 64 * 1024;
+
+    @TempDir
+    Path directory;
+    private AuditSegment segment;
+
+    @AfterEach
+    void close() throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+    }
+
+    @Test
+    void historyHoldsOnlyCommittedRecordsOfTheCustomer() throws IOException {
+        segment = new AuditSegment(directory.resolve(name(1)), SIZE);
+        append(segment, 1, 10L, 1);
+        append(segment, 2, 20L, 1);
+        segment.commit();
+        append(segment, 3, 10L, 2);
+
+        assertThat(revisions(segment, 10L)).containsExactly(1L);
+
+        segment.commit();
+
+        assertThat(revisions(segment, 10L)).containsExactly(1L, 2L);
+        assertThat(revisions(segment, 20L)).containsExactly(1L);
+        assertThat(revisions(segment, 30L)).isEmpty();
+    }
+
+    @Test
+    void rolledBackFramesAreOverwritten() throws IOException {
+        segment = new AuditSegment(directory.resolve(name(1)), SIZE);
+        append(segment, 1, 10L, 1);
+        segment.commit();
+        append(segment, 2, 10L, 2);
+        segment.rollback();
+        append(segment, 2, 20L, 1);
+        segment.commit();
+
+        assertThat(revisions(segment, 10L)).containsExactly(1L);
+        assertThat(revisions(segment, 20L)).containsExactly(1L);
+        assertThat(segment.getLastSequence()).isEqualTo(2);
+    }
+
+    @Test
+    void reopeningRecoversUpToATornFrame() throws IOException {
+        Path path = directory.resolve(name(1));
+        segment = new AuditSegment(path, SIZE);
+        append(segment, 1, 10L, 1);
+        append(segment, 2, 10L, 2);
+        segment.commit();
+        append(segment, 3, 10L, 3);
+        segment.close();
+        corruptFrame(path, 2);
+
+        segment = new AuditSegment(path, SIZE);
+
+        assertThat(revisions(segment, 10L)).containsExactly(1L, 2L);
+        assertThat(segment.getLastSequence()).isEqualTo(2);
+    }
+
+    @Test
+    void sealedSegmentIsReadThroughItsIndexWithoutAScan() throws IOException {
+        Path path = directory.resolve(name(1));
+        segment = new AuditSegment(path, SIZE);
+        for (int i = 0; i < 100; i++) {
+            append(segment, i + 1, 100L - i % 10, i / 10 + 1);
+        }
+        segment.commit();
+        long lastTimestamp = segment.getLastTimestamp();
+        segment.seal();
+
+        assertThat(Files.exists(AuditSegment.indexPath(path))).isTrue();
+        assertThat(revisions(segment, 95L)).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+
+        // A scan would stop at the corrupt first frame; the index still finds the later ones
+        corruptFrame(path, 0);
+        segment = AuditSegment.sealed(path, SIZE);
+
+        assertThat(segment.getLastSequence()).isEqualTo(100);
+        assertThat(segment.getLastTimestamp()).isEqualTo(lastTimestamp);
+        assertThat(revisions(segment, 95L)).hasSize(10);
+        assertThat(revisions(segment, 91L)).hasSize(10);
+        assertThat(revisions(segment, 90L)).isEmpty();
+        assertThat(revisions(segment, 101L)).isEmpty();
+    }
+
+    @Test
+    void missingIndexIsRebuiltFromTheSegment() throws IOException {
+        Path path = directory.resolve(name(1));
+        segment = new AuditSegment(path, SIZE);
+        append(segment, 1, 10L, 1);
+        append(segment, 2, 20L, 1);
+        segment.commit();
+        segment.seal();
+        Files.delete(AuditSegment.indexPath(path));
+
+        segment = AuditSegment.sealed(path, SIZE);
+
+        assertThat(Files.exists(AuditSegment.indexPath(path))).isTrue();
+        assertThat(revisions(segment, 20L)).containsExactly(1L);
+        assertThat(segment.getLastSequence()).isEqualTo(2);
+    }
+
+    private static void append(AuditSegment segment, long sequence, Long customerId, long revision) {
+        assertThat(segment.append(AuditRecord.builder()
+                .sequence(sequence)
+                .timestamp(1000 + sequence)
+                .customerId(customerId)
+                .revision(revision)
+                .operation(AuditRecord.Operation.UPDATE)
+                .payload("{\"revision\":" + revision + "}")
+                .build())).isTrue();
+    }
+
+    private static List<Long> revisions(AuditSegment segment, Long customerId) {
+        return segment.history(customerId).map(AuditRecord::getRevision).collect(Collectors.toList());
+    }
+
+    // Flips a payload byte of the frame with the given index, so its checksum no longer matches
+    private static void corruptFrame(Path path, int frame) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            long offset = 0;
+            for (int i = 0; i < frame; i++) {
+                length.clear();
+                file.read(length, offset);
+                offset += 8 + length.getInt(0);
+            }
+            ByteBuffer payload = ByteBuffer.allocate(1);
+            file.read(payload, offset + 8);
+            payload.put(0, (byte) (payload.get(0) ^ 0xFF));
+            payload.rewind();
+            file.write(payload, offset + 8);
+        }
+    }
+
+    private static String name(long baseSequence) {
+        return String.format("%020d.log", baseSequence);
+    }
+}
+
+// CustomerAuditLogTest.java (src/test/java)
+package com.crm.customer.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerAuditLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void historySurvivesARestartAcrossSealedSegments() throws Exception {
+        AuditProperties properties = new AuditProperties();
+        properties.setDirectory(directory.toString());
+        properties.setSegmentSize(4096);
+        properties.setNode("customer-1");
+        CustomerAuditLog log = new CustomerAuditLog(properties, new ObjectMapper());
+        log.start();
+        for (int revision = 1; revision <= 200; revision++) {
+            log.append((long) revision % 7, revision, AuditRecord.Operation.UPDATE, Map.of("revision", revision));
+        }
+        log.stop();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<String> names = files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+            long logs = names.stream().filter(name -> name.endsWith(".log")).count();
+            assertThat(logs).isGreaterThan(2);
+            assertThat(names.stream().filter(name -> name.endsWith(".idx")).count()).isEqualTo(logs - 1);
+        }
+
+        CustomerAuditLog restarted = new CustomerAuditLog(properties, new ObjectMapper());
+        restarted.start();
+        try {
+            assertThat(restarted.getNode()).isEqualTo("customer-1");
+            assertThat(restarted.history(3L).map(AuditRecord::getRevision).collect(Collectors.toList()))
+                    .hasSize(29)
+                    .isSorted()
+                    .allMatch(revision -> revision % 7 == 3);
+            restarted.append(3L, 201, AuditRecord.Operation.DELETE, null);
+        } finally {
+            restarted.stop();
+        }
+    }
+}
+
+// CustomerAuditLogBenchmark.java (src/test/java; run its main method)
+package com.crm.customer.audit;
+
+import com.crm.customer.dto.CustomerDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Audit appends offered at 50k changes/s from several request threads, then restart and history lookup times
+public class CustomerAuditLogBenchmark {
+    private static final int RATE = 50_000;
+    private static final int SECONDS = 10;
+    private static final int THREADS = 4;
+    private static final int CUSTOMERS = 100_000;
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int LOOKUPS = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("customer-audit-benchmark");
+        try {
+            AuditProperties properties = new AuditProperties();
+            properties.setDirectory(directory.toString());
+            properties.setSegmentSize(SEGMENT_SIZE);
+            ObjectMapper objectMapper = new ObjectMapper();
+            CustomerAuditLog log = new CustomerAuditLog(properties, objectMapper);
+            log.start();
+
+            int perThread = RATE * SECONDS / THREADS;
+            long[][] latencies = new long[THREADS][perThread];
+            Thread[] producers = new Thread[THREADS];
+            long start = System.nanoTime();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                producers[t] = new Thread(() -> produce(log, thread, perThread, start, latencies[thread]));
+                producers[t].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            long produced = System.nanoTime() - start;
+            log.stop();
+            long drained = System.nanoTime() - start;
+
+            long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.printf("Offered %,d changes/s for %d s from %d threads: %,.0f/s appended, all %,d written after %.2f s%n",
+                    RATE, SECONDS, THREADS, all.length / (produced / 1e9), all.length, drained / 1e9);
+            System.out.printf("append() p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f ms%n",
+                    all[all.length / 2] / 1e3, all[(int) (all.length * 0.99)] / 1e3,
+                    all[(int) (all.length * 0.999)] / 1e3, all[all.length - 1] / 1e6);
+            System.out.printf("%d segments, %,d MB on disk%n", count(directory, ".log"), size(directory) >> 20);
+
+            restart(null, properties, objectMapper);
+            restart("Restart with segment indexes", properties, objectMapper);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path index : files.filter(f -> f.toString().endsWith(".idx")).collect(Collectors.toList())) {
+                    Files.delete(index);
+                }
+            }
+            restart("Restart scanning every segment", properties, objectMapper);
+            restart("Restart with rebuilt indexes", properties, objectMapper);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    // Paced so that each thread offers its share of the rate; falling behind is not made up with bursts
+    private static void produce(CustomerAuditLog log, int thread, int count, long start, long[] latencies) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * THREADS / RATE;
+        for (int i = 0; i < count; i++) {
+            long due = start + i * intervalNanos;
+            long now = System.nanoTime();
+            if (due > now) {
+                LockSupport.parkNanos(due - now);
+            }
+            long customerId = 7_000_000_000_000_000L + (long) ((i * THREADS + thread) % CUSTOMERS) * 4099L;
+            CustomerDTO state = CustomerDTO.builder()
+                    .id(customerId)
+                    .name("Customer " + customerId)
+                    .email("customer" + customerId + "@example.com")
+                    .phone("+1-555-0100")
+                    .interactions(List.of("newsletter", "webinar"))
+                    .build();
+            long before = System.nanoTime();
+            log.append(customerId, i + 1, AuditRecord.Operation.UPDATE, state);
+            latencies[i] = System.nanoTime() - before;
+        }
+    }
+
+    // A null label is a warm-up run
+    private static void restart(String label, AuditProperties properties, ObjectMapper objectMapper) throws Exception {
+        long start = System.nanoTime();
+        CustomerAuditLog log = new CustomerAuditLog(properties, objectMapper);
+        log.start();
+        long started = System.nanoTime() - start;
+        long[] nanos = new long[LOOKUPS];
+        long records = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            long customerId = 7_000_000_000_000_000L + (long) (i * 97 % CUSTOMERS) * 4099L;
+            long before = System.nanoTime();
+            records += log.history(customerId).count();
+            nanos[i] = System.nanoTime() - before;
+        }
+        log.stop();
+        if (label == null) {
+            return;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-32s %7.1f ms; history p50 %.2f ms, p99 %.2f ms (%.1f records per customer)%n", label,
+                started / 1e6, nanos[LOOKUPS / 2] / 1e6, nanos[(int) (LOOKUPS * 0.99)] / 1e6, (double) records / LOOKUPS);
+    }
+
+    private static long count(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.toString().endsWith(suffix)).count();
+        }
+    }
+
+    private static long size(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
 }
 
 // application.yml
@@ -188,24 +2205,186 @@ server:
 spring:
   application:
     name: customer-service
-  datasource:
-    url: jdbc:oracle:thin:@localhost:1521:xe
-    username: your_oracle_username
-    password: your_oracle_password
-    driver-class-name: oracle.jdbc.OracleDriver
   jpa:
+    # Shard connections are chosen per ShardTemplate call, so no connection may be held for the whole request
+    open-in-view: false
     hibernate:
-      ddl-auto: update
+      # Every shard is migrated from db/migration at startup (ShardingConfig); Hibernate only checks the first
+      ddl-auto: validate
     show-sql: true
     database-platform: org.hibernate.dialect.Oracle10gDialect
 
+  flyway:
+    enabled: false # migrations run per shard, not against the routing data source
+  # Optional with short timeouts: a slow config server falls back to the local snapshot instead of stalling boot
+  config:
+    import: optional:configserver:http://localhost:8888
   cloud:
     config:
       uri: http://localhost:8888
+      fail-fast: false
+      request-connect-timeout: 1000
+      request-read-timeout: 2000
 
 eureka:
   client:
     service-url:
       defaultZone: http://localhost:8761/eureka/
+    eureka-server-connect-timeout-seconds: 2
+    eureka-server-read-timeout-seconds: 3
+
+crm:
+  snapshot:
+    directory: /var/lib/customer-service/snapshot
+  sharding:
+    node-lease-seconds: 60 # id generator node ids are leased per instance from the first shard
+    virtual-nodes: 128
+    rebalance-batch-size: 500
+    shards:
+      - name: shard-0
+        url: jdbc:oracle:thin:@localhost:1521:xe
+        username: your_oracle_username
+        password: your_oracle_password
+        driver-class-name: oracle.jdbc.OracleDriver
+        replica-url: jdbc:oracle:thin:@localhost:1531:xe
+      - name: shard-1
+        url: jdbc:oracle:thin:@localhost:1522:xe
+        username: your_oracle_username
+        password: your_oracle_password
+        driver-class-name: oracle.jdbc.OracleDriver
+  audit:
+    directory: /var/lib/customer-service/audit
+    segment-size: 67108864 # 64 MB per memory-mapped segment
+    queue-capacity: 65536
+    max-batch: 1024 # records per group commit
+    retention-days: 365 # sealed segments older than this are deleted
+    # node: customer-1 # names this instance in history responses (X-Audit-Node); defaults to the host name
+  replication:
+    max-lag-ms: 2000
+    sticky-window-ms: 5000
+    heartbeat-interval-ms: 1000
+
+// application-fast-start.yml (activate with --spring.profiles.active=fast-start; see README "Fast start")
+spring:
+  main:
+    lazy-initialization: true
+  jmx:
+    enabled: false
+  data:
+    jpa:
+      repositories:
+        bootstrap-mode: deferred # JPA metamodel is built in the background while the web server starts
+  jpa:
+    properties:
+      hibernate:
+        boot:
+          allow_jdbc_metadata_access: false # skip the JDBC metadata round-trip at boot
+    hibernate:
+      ddl-auto: none # skips validation; the shard migrations still run
+
+eureka:
+  client:
+    initial-instance-info-replication-interval-seconds: 5 # register within seconds instead of 40
+
+// db/migration/oracle/V1__customer.sql
+create table customer (
+    id number(19,0) not null,
+    name varchar2(255 char),
+    email varchar2(255 char),
+    phone varchar2(255 char),
+    primary key (id)
+);
+
+create table customer_interactions (
+    customer_id number(19,0) not null,
+    interactions varchar2(255 char),
+    constraint fk_customer_interactions foreign key (customer_id) references customer (id)
+);
+
+create index ix_customer_interactions on customer_interactions (customer_id);
+
+// db/migration/oracle/V2__customer_revision.sql
+alter table customer add (revision number(19,0));
+
+// db/migration/oracle/V3__customer_node_lease.sql
+create table customer_node_lease (
+    node_id number(4,0) not null,
+    owner varchar2(200 char) not null,
+    expires_at number(19,0) not null,
+    primary key (node_id)
+);
+
+// db/migration/oracle/V4__replication_heartbeat.sql
+create table replication_heartbeat (
+    id number(10,0) not null,
+    beat_at number(19,0) not null,
+    primary key (id)
+);
+
+// db/migration/mysql/V1__customer.sql
+create table customer (
+    id bigint not null,
+    name varchar(255),
+    email varchar(255),
+    phone varchar(255),
+    primary key (id)
+) engine=InnoDB;
+
+create table customer_interactions (
+    customer_id bigint not null,
+    interactions varchar(255),
+    constraint fk_customer_interactions foreign key (customer_id) references customer (id)
+) engine=InnoDB;
+
+// db/migration/mysql/V2__customer_revision.sql
+alter table customer add column revision bigint;
+
+// db/migration/mysql/V3__customer_node_lease.sql
+create table customer_node_lease (
+    node_id int not null,
+    owner varchar(200) not null,
+    expires_at bigint not null,
+    primary key (node_id)
+) engine=InnoDB;
+
+// db/migration/mysql/V4__replication_heartbeat.sql
+create table replication_heartbeat (
+    id integer not null,
+    beat_at bigint not null,
+    primary key (id)
+) engine=InnoDB;
+
+// db/migration/h2/V1__customer.sql (src/test/resources)
+create table customer (
+    id bigint not null,
+    name varchar(255),
+    email varchar(255),
+    phone varchar(255),
+    primary key (id)
+);
+
+create table customer_interactions (
+    customer_id bigint not null,
+    interactions varchar(255),
+    constraint fk_customer_interactions foreign key (customer_id) references customer (id)
+);
+
+// db/migration/h2/V2__customer_revision.sql (src/test/resources)
+alter table customer add column revision bigint;
+
+// db/migration/h2/V3__customer_node_lease.sql (src/test/resources)
+create table customer_node_lease (
+    node_id int not null,
+    owner varchar(200) not null,
+    expires_at bigint not null,
+    primary key (node_id)
+);
+
+// db/migration/h2/V4__replication_heartbeat.sql (src/test/resources)
+create table replication_heartbeat (
+    id integer not null,
+    beat_at bigint not null,
+    primary key (id)
+);
 
-# dependencies in pom.xml include: spring-boot-starter-web, spring-boot-starter-data-jpa, spring-boot-starter-security, lombok, modelmapper, Oracle JDBC, spring-cloud-starter-netflix-eureka-client
+# dependencies in pom.xml include: spring-boot-starter-web, jackson-dataformat-smile, spring-boot-starter-data-jpa, spring-boot-starter-security, lombok, modelmapper, Oracle JDBC, spring-cloud-starter-netflix-eureka-client, flyway-core, flyway-mysql, crm-common; test: spring-boot-starter-test, h2
@@ -5,10 +5,12 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableDiscoveryClient
 @EnableFeignClients
+@EnableScheduling
 public class MarketingServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(MarketingServiceApplication.class, args);
@@ -20,25 +22,70 @@ package com.crm.marketing.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import java.time.Instant;
 
 @Entity
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@Table(indexes = @Index(columnList = "status"))
 public class Campaign {
+    // Campaigns created without a launch time have no status
+    public enum Status { SCHEDULED, LAUNCHING, LAUNCHED, FAILED }
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     private String name;
     private String targetSegment;
     private String content;
+    private Instant launchAt;
+    @Enumerated(EnumType.STRING)
+    private Status status;
+    private Instant launchedAt;
+    private Integer audienceSize;
+    // Set when a node claims the launch; a LAUNCHING row whose claim is older than crm.scheduler.claim-timeout-ms is rescheduled
+    private Instant claimedAt;
+    // Failed audience resolutions so far; the launch is retried from nextAttemptAt until crm.scheduler.max-attempts
+    private Integer launchAttempts;
+    private Instant nextAttemptAt;
+}
+
+// CampaignMetric.java (Entity)
+package com.crm.marketing.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.Instant;
+
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"campaignId", "granularity", "bucketStart"}))
+public class CampaignMetric {
+    public enum Granularity { MINUTE, HOUR, DAY }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private Long campaignId;
+    @Enumerated(EnumType.STRING)
+    private Granularity granularity;
+    private Instant bucketStart;
+    private long sends;
+    private long opens;
+    private long clicks;
 }
 
 // CampaignDTO.java
 package com.crm.marketing.dto;
 
+import com.crm.marketing.entity.Campaign;
 import lombok.*;
+import java.time.Instant;
 
 @Data
 @NoArgsConstructor
@@ -49,6 +96,11 @@ public class CampaignDTO {
     private String name;
     private String targetSegment;
     private String content;
+    private Instant launchAt;
+    // Set by marketing-service; ignored on create
+    private Campaign.Status status;
+    private Instant launchedAt;
+    private Integer audienceSize;
 }
 
 // CustomerDTO.java (from Customer Service)
@@ -69,13 +121,150 @@ public class CustomerDTO {
     private List<String> interactions;
 }
 
+// EngagementEventDTO.java
+package com.crm.marketing.dto;
+
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EngagementEventDTO {
+    public enum Type { SEND, OPEN, CLICK }
+
+    private Long campaignId;
+    private Type type;
+    // Epoch milliseconds; the time of ingestion when omitted
+    private Long timestamp;
+}
+
+// CampaignMetricDTO.java
+package com.crm.marketing.dto;
+
+import com.crm.marketing.entity.CampaignMetric;
+import lombok.*;
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CampaignMetricDTO {
+    private CampaignMetric.Granularity granularity;
+    private Instant bucketStart;
+    private long sends;
+    private long opens;
+    private long clicks;
+}
+
+// CampaignFunnelDTO.java
+package com.crm.marketing.dto;
+
+import lombok.*;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CampaignFunnelDTO {
+    private Long campaignId;
+    // Totals include the answering instance's unflushed events; other instances' appear once they flush
+    private long sends;
+    private long opens;
+    private long clicks;
+    private double openRate;
+    private double clickThroughRate;
+    private List<CampaignMetricDTO> buckets;
+}
+
+// LoginRequest.java (from Auth Service)
+package com.crm.marketing.dto;
+
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoginRequest {
+    private String username;
+    private String password;
+}
+
+// LoginResponse.java (from Auth Service)
+package com.crm.marketing.dto;
+
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoginResponse {
+    private String token;
+}
+
 // CampaignRepository.java
 package com.crm.marketing.repository;
 
 import com.crm.marketing.entity.Campaign;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.time.Instant;
+import java.util.List;
 
 public interface CampaignRepository extends JpaRepository<Campaign, Long> {
+    interface ScheduledLaunch {
+        Long getId();
+        Instant getLaunchAt();
+        Instant getNextAttemptAt();
+    }
+
+    // Includes campaigns created on other marketing-service nodes
+    @Query("select c.id as id, c.launchAt as launchAt, c.nextAttemptAt as nextAttemptAt from Campaign c "
+            + "where c.status = com.crm.marketing.entity.Campaign.Status.SCHEDULED and c.launchAt < :horizon "
+            + "and (c.nextAttemptAt is null or c.nextAttemptAt < :horizon)")
+    List<ScheduledLaunch> findLaunchesDueBefore(@Param("horizon") Instant horizon);
+
+    // Only one marketing-service node wins the claim for a given launch
+    @Modifying
+    @Query("update Campaign c set c.status = com.crm.marketing.entity.Campaign.Status.LAUNCHING, c.claimedAt = :now "
+            + "where c.id = :id and c.status = com.crm.marketing.entity.Campaign.Status.SCHEDULED and c.launchAt <= :now "
+            + "and (c.nextAttemptAt is null or c.nextAttemptAt <= :now)")
+    int claimLaunch(@Param("id") Long id, @Param("now") Instant now);
+
+    // Claims left behind by a node that stopped between claiming and finishing a launch
+    @Modifying
+    @Query("update Campaign c set c.status = com.crm.marketing.entity.Campaign.Status.SCHEDULED, c.claimedAt = null "
+            + "where c.status = com.crm.marketing.entity.Campaign.Status.LAUNCHING "
+            + "and (c.claimedAt is null or c.claimedAt < :cutoff)")
+    int releaseStaleClaims(@Param("cutoff") Instant cutoff);
+}
+
+// CampaignMetricRepository.java
+package com.crm.marketing.repository;
+
+import com.crm.marketing.entity.CampaignMetric;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.time.Instant;
+import java.util.List;
+
+public interface CampaignMetricRepository extends JpaRepository<CampaignMetric, Long> {
+    List<CampaignMetric> findByCampaignIdAndGranularityAndBucketStartBetweenOrderByBucketStart(
+            Long campaignId, CampaignMetric.Granularity granularity, Instant from, Instant to);
+
+    // Adds in the database so concurrent flushes from several marketing-service nodes do not overwrite each other
+    @Modifying
+    @Query("update CampaignMetric m set m.sends = m.sends + :sends, m.opens = m.opens + :opens, m.clicks = m.clicks + :clicks "
+            + "where m.campaignId = :campaignId and m.granularity = :granularity and m.bucketStart = :bucketStart")
+    int increment(@Param("campaignId") Long campaignId, @Param("granularity") CampaignMetric.Granularity granularity,
+                  @Param("bucketStart") Instant bucketStart, @Param("sends") long sends,
+                  @Param("opens") long opens, @Param("clicks") long clicks);
 }
 
 // CampaignService.java
@@ -92,13 +281,18 @@ public interface CampaignService {
 // CampaignServiceImpl.java
 package com.crm.marketing.service.impl;
 
+import com.crm.common.routing.ReadYourWritesTracker;
 import com.crm.marketing.dto.CampaignDTO;
 import com.crm.marketing.entity.Campaign;
 import com.crm.marketing.repository.CampaignRepository;
+import com.crm.marketing.scheduling.CampaignLaunchScheduler;
 import com.crm.marketing.service.CampaignService;
 import lombok.RequiredArgsConstructor;
 import org.modelmapper.ModelMapper;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -107,14 +301,32 @@ import java.util.stream.Collectors;
 public class CampaignServiceImpl implements CampaignService {
     private final CampaignRepository repository;
     private final ModelMapper modelMapper;
+    private final ReadYourWritesTracker readYourWrites;
+    private final CampaignLaunchScheduler launchScheduler;
 
     @Override
+    @Transactional
     public CampaignDTO createCampaign(CampaignDTO dto) {
         Campaign campaign = modelMapper.map(dto, Campaign.class);
-        return modelMapper.map(repository.save(campaign), CampaignDTO.class);
+        campaign.setStatus(campaign.getLaunchAt() != null ? Campaign.Status.SCHEDULED : null);
+        campaign.setLaunchedAt(null);
+        campaign.setAudienceSize(null);
+        readYourWrites.recordWrite();
+        Campaign saved = repository.save(campaign);
+        if (saved.getLaunchAt() != null) {
+            // Only timers for committed campaigns, so a rolled-back create never launches
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    launchScheduler.schedule(saved.getId(), saved.getLaunchAt());
+                }
+            });
+        }
+        return modelMapper.map(saved, CampaignDTO.class);
     }
 
     @Override
+    @Transactional(readOnly = true)
     public List<CampaignDTO> getAllCampaigns() {
         return repository.findAll().stream()
                 .map(campaign -> modelMapper.map(campaign, CampaignDTO.class))
@@ -122,18 +334,374 @@ public class CampaignServiceImpl implements CampaignService {
     }
 }
 
+// CampaignAnalyticsService.java
+package com.crm.marketing.service;
+
+import com.crm.marketing.dto.CampaignFunnelDTO;
+import com.crm.marketing.dto.EngagementEventDTO;
+import com.crm.marketing.entity.CampaignMetric;
+import java.time.Instant;
+import java.util.List;
+
+public interface CampaignAnalyticsService {
+    void recordEvents(List<EngagementEventDTO> events);
+    CampaignFunnelDTO getFunnel(Long campaignId, CampaignMetric.Granularity granularity, Instant from, Instant to);
+    void flush();
+}
+
+// CampaignAnalyticsServiceImpl.java
+package com.crm.marketing.service.impl;
+
+import com.crm.marketing.analytics.CampaignMetricsAggregator;
+import com.crm.marketing.dto.CampaignFunnelDTO;
+import com.crm.marketing.dto.CampaignMetricDTO;
+import com.crm.marketing.dto.EngagementEventDTO;
+import com.crm.marketing.entity.CampaignMetric;
+import com.crm.marketing.repository.CampaignMetricRepository;
+import com.crm.marketing.service.CampaignAnalyticsService;
+import lombok.extern.slf4j.Slf4j;
+import org.modelmapper.ModelMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+public class CampaignAnalyticsServiceImpl implements CampaignAnalyticsService {
+    private record RollupKey(long campaignId, CampaignMetric.Granularity granularity, Instant bucketStart) {
+    }
+
+    private final CampaignMetricsAggregator aggregator;
+    private final CampaignMetricRepository repository;
+    private final ModelMapper modelMapper;
+    private final TransactionTemplate writeTemplate;
+    private final TransactionTemplate readTemplate;
+
+    public CampaignAnalyticsServiceImpl(CampaignMetricsAggregator aggregator, CampaignMetricRepository repository,
+                                        ModelMapper modelMapper, PlatformTransactionManager transactionManager) {
+        this.aggregator = aggregator;
+        this.repository = repository;
+        this.modelMapper = modelMapper;
+        this.writeTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void recordEvents(List<EngagementEventDTO> events) {
+        long now = System.currentTimeMillis();
+        for (EngagementEventDTO event : events) {
+            aggregator.record(event.getCampaignId(), event.getType(),
+                    event.getTimestamp() != null ? event.getTimestamp() : now, 1);
+        }
+    }
+
+    @Override
+    public CampaignFunnelDTO getFunnel(Long campaignId, CampaignMetric.Granularity granularity, Instant from, Instant to) {
+        List<CampaignMetric> buckets = readTemplate.execute(status -> repository
+                .findByCampaignIdAndGranularityAndBucketStartBetweenOrderByBucketStart(campaignId, granularity, from, to));
+        // Unflushed minutes count when their bucket at this granularity falls in the range, like the stored rows
+        long[] totals = aggregator.pending(campaignId, minute -> {
+            Instant bucketStart = bucketStart(Instant.ofEpochMilli(minute * 60_000), granularity);
+            return !bucketStart.isBefore(from) && !bucketStart.isAfter(to);
+        });
+        for (CampaignMetric bucket : buckets) {
+            totals[0] += bucket.getSends();
+            totals[1] += bucket.getOpens();
+            totals[2] += bucket.getClicks();
+        }
+        return CampaignFunnelDTO.builder()
+                .campaignId(campaignId)
+                .sends(totals[0])
+                .opens(totals[1])
+                .clicks(totals[2])
+                .openRate(totals[0] == 0 ? 0 : (double) totals[1] / totals[0])
+                .clickThroughRate(totals[1] == 0 ? 0 : (double) totals[2] / totals[1])
+                .buckets(buckets.stream()
+                        .map(bucket -> modelMapper.map(bucket, CampaignMetricDTO.class))
+                        .collect(Collectors.toList()))
+                .build();
+    }
+
+    // Rolls the drained minute counters up into minute, hour and day rows; on failure they go back for the next flush
+    @Override
+    @Scheduled(fixedDelayString = "${crm.analytics.flush-interval-ms:10000}")
+    public void flush() {
+        Map<CampaignMetricsAggregator.BucketKey, long[]> drained = aggregator.drain();
+        if (drained.isEmpty()) {
+            return;
+        }
+        Map<RollupKey, long[]> rollups = new HashMap<>();
+        drained.forEach((key, counts) -> {
+            Instant minute = Instant.ofEpochMilli(key.minute() * 60_000);
+            for (CampaignMetric.Granularity granularity : CampaignMetric.Granularity.values()) {
+                addTo(rollups, new RollupKey(key.campaignId(), granularity, bucketStart(minute, granularity)), counts);
+            }
+        });
+        try {
+            writeTemplate.executeWithoutResult(status -> rollups.forEach(this::upsert));
+        } catch (RuntimeException e) {
+            log.warn("Campaign metrics flush failed, keeping {} buckets for the next attempt", drained.size(), e);
+            aggregator.restore(drained);
+        }
+    }
+
+    private void upsert(RollupKey key, long[] counts) {
+        if (repository.increment(key.campaignId(), key.granularity(), key.bucketStart(), counts[0], counts[1], counts[2]) == 0) {
+            repository.save(CampaignMetric.builder()
+                    .campaignId(key.campaignId())
+                    .granularity(key.granularity())
+                    .bucketStart(key.bucketStart())
+                    .sends(counts[0])
+                    .opens(counts[1])
+                    .clicks(counts[2])
+                    .build());
+        }
+    }
+
+    private static Instant bucketStart(Instant minute, CampaignMetric.Granularity granularity) {
+        return switch (granularity) {
+            case MINUTE -> minute;
+            case HOUR -> minute.truncatedTo(ChronoUnit.HOURS);
+            case DAY -> minute.truncatedTo(ChronoUnit.DAYS);
+        };
+    }
+
+    private static void addTo(Map<RollupKey, long[]> rollups, RollupKey key, long[] counts) {
+        long[] total = rollups.computeIfAbsent(key, k -> new long[3]);
+        for (int i = 0; i < 3; i++) {
+            total[i] += counts[i];
+        }
+    }
+}
+
 // CustomerClient.java (Feign Client to talk to Customer Service)
 package com.crm.marketing.client;
 
+import com.crm.marketing.config.CustomerClientConfig;
 import com.crm.marketing.dto.CustomerDTO;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import java.util.List;
 
-@FeignClient(name = "customer-service")
+// Calls on behalf of the user whose request is being served; CustomerClientConfig forwards their token
+@FeignClient(name = "customer-service", configuration = CustomerClientConfig.class)
 public interface CustomerClient {
     @GetMapping("/customers")
     List<CustomerDTO> getAllCustomers();
+
+    // Smile-encoded and projected to the given comma-separated fields, e.g. "id,email"
+    @GetMapping(value = "/customers", produces = CustomerClientConfig.APPLICATION_SMILE_VALUE)
+    List<CustomerDTO> getCustomers(@RequestParam("fields") String fields);
+}
+
+// SegmentCustomerClient.java (Feign Client for marketing-service's own calls to Customer Service)
+package com.crm.marketing.client;
+
+import com.crm.marketing.config.CustomerClientConfig;
+import com.crm.marketing.config.SegmentCustomerClientConfig;
+import com.crm.marketing.dto.CustomerDTO;
+import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import java.util.List;
+
+// Authenticated as the service account, so it must never serve a user request; only SegmentResolver uses it
+@FeignClient(name = "customer-service", contextId = "segmentCustomerClient",
+        configuration = SegmentCustomerClientConfig.class)
+public interface SegmentCustomerClient {
+    @GetMapping(value = "/customers", produces = CustomerClientConfig.APPLICATION_SMILE_VALUE)
+    List<CustomerDTO> getCustomers(@RequestParam("fields") String fields);
+}
+
+// AuthClient.java (Feign Client to talk to Auth Service)
+package com.crm.marketing.client;
+
+import com.crm.marketing.dto.LoginRequest;
+import com.crm.marketing.dto.LoginResponse;
+import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+
+@FeignClient(name = "auth-service")
+public interface AuthClient {
+    @PostMapping("/auth/login")
+    LoginResponse login(@RequestBody LoginRequest request);
+}
+
+// ServiceTokenProvider.java
+package com.crm.marketing.client;
+
+import com.crm.marketing.config.ServiceAccountProperties;
+import com.crm.marketing.dto.LoginRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Base64;
+
+// auth-service has no client_credentials grant, so the service account logs in and reuses the JWT until near its expiry
+@Component
+@RequiredArgsConstructor
+@EnableConfigurationProperties(ServiceAccountProperties.class)
+public class ServiceTokenProvider {
+    private final AuthClient authClient;
+    private final ServiceAccountProperties properties;
+    private final ObjectMapper objectMapper;
+    private String token;
+    private Instant refreshAt = Instant.MIN;
+
+    public synchronized String token() {
+        if (token == null || !Instant.now().isBefore(refreshAt)) {
+            String issued = authClient.login(new LoginRequest(properties.getUsername(), properties.getPassword())).getToken();
+            refreshAt = expiry(issued).minusMillis(properties.getRefreshBeforeExpiryMs());
+            token = issued;
+        }
+        return token;
+    }
+
+    // Called when customer-service rejects the token, e.g. after the service account's role changed
+    public synchronized void invalidate() {
+        token = null;
+    }
+
+    // The signature is auth-service's to check; only the exp claim is read here
+    private Instant expiry(String jwt) {
+        String[] parts = jwt.split("\\.");
+        try {
+            JsonNode claims = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1]));
+            return Instant.ofEpochSecond(claims.path("exp").asLong());
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("auth-service returned an unreadable token", e);
+        }
+    }
+}
+
+// ServiceAccountProperties.java
+package com.crm.marketing.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// auth-service user that marketing-service calls other services as; its role must be one customer-service's GET /customers allows
+@Data
+@ConfigurationProperties(prefix = "crm.service-account")
+public class ServiceAccountProperties {
+    private String username;
+    private String password;
+    private long refreshBeforeExpiryMs = 60000;
+}
+
+// CustomerClientConfig.java (no @Configuration: applies to CustomerClient only)
+package com.crm.marketing.config;
+
+import feign.RequestInterceptor;
+import feign.codec.Decoder;
+import feign.codec.ErrorDecoder;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.ResponseEntityDecoder;
+import org.springframework.cloud.openfeign.support.SpringDecoder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.server.ResponseStatusException;
+import java.util.List;
+
+public class CustomerClientConfig {
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    // customer-service checks the caller's own role, so their Authorization header is passed on unchanged
+    @Bean
+    public RequestInterceptor callerAuthorizationInterceptor() {
+        return template -> {
+            RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+            if (attributes instanceof ServletRequestAttributes servletAttributes) {
+                HttpServletRequest request = servletAttributes.getRequest();
+                String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+                if (authorization != null) {
+                    template.header(HttpHeaders.AUTHORIZATION, authorization);
+                }
+            }
+        };
+    }
+
+    // A caller customer-service rejects gets its 401 or 403 rather than a 500
+    @Bean
+    public ErrorDecoder customerClientErrorDecoder() {
+        ErrorDecoder defaultDecoder = new ErrorDecoder.Default();
+        return (methodKey, response) -> {
+            if (response.status() == HttpStatus.UNAUTHORIZED.value() || response.status() == HttpStatus.FORBIDDEN.value()) {
+                return new ResponseStatusException(HttpStatus.valueOf(response.status()), "Rejected by customer-service");
+            }
+            return defaultDecoder.decode(methodKey, response);
+        };
+    }
+
+    @Bean
+    public Decoder customerClientDecoder() {
+        return decoder();
+    }
+
+    // Kept off the application context so marketing-service's own endpoints keep answering in JSON
+    static Decoder decoder() {
+        HttpMessageConverters converters = new HttpMessageConverters(false, List.of(
+                new MappingJackson2HttpMessageConverter(),
+                new MappingJackson2SmileHttpMessageConverter()));
+        return new ResponseEntityDecoder(new SpringDecoder(() -> converters));
+    }
+}
+
+// SegmentCustomerClientConfig.java (no @Configuration: applies to SegmentCustomerClient only)
+package com.crm.marketing.config;
+
+import com.crm.marketing.client.ServiceTokenProvider;
+import feign.RequestInterceptor;
+import feign.codec.Decoder;
+import feign.codec.ErrorDecoder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+public class SegmentCustomerClientConfig {
+
+    @Bean
+    public RequestInterceptor serviceTokenInterceptor(ServiceTokenProvider tokenProvider) {
+        return template -> template.header(HttpHeaders.AUTHORIZATION, "Bearer " + tokenProvider.token());
+    }
+
+    // A rejected token is dropped so the next call logs in again
+    @Bean
+    public ErrorDecoder segmentCustomerClientErrorDecoder(ServiceTokenProvider tokenProvider) {
+        ErrorDecoder defaultDecoder = new ErrorDecoder.Default();
+        return (methodKey, response) -> {
+            if (response.status() == HttpStatus.UNAUTHORIZED.value()) {
+                tokenProvider.invalidate();
+            }
+            return defaultDecoder.decode(methodKey, response);
+        };
+    }
+
+    @Bean
+    public Decoder segmentCustomerClientDecoder() {
+        return CustomerClientConfig.decoder();
+    }
 }
 
 // CampaignController.java
@@ -167,8 +735,1198 @@ public class CampaignController {
     }
 
     @GetMapping("/customers")
-    public ResponseEntity<List<CustomerDTO>> getCustomersForMarketing() {
-        return ResponseEntity.ok(customerClient.getAllCustomers());
+    public ResponseEntity<List<CustomerDTO>> getCustomersForMarketing(@RequestParam(required = false) String fields) {
+        if (fields == null || fields.isBlank()) {
+            return ResponseEntity.ok(customerClient.getAllCustomers());
+        }
+        return ResponseEntity.ok(customerClient.getCustomers(fields));
+    }
+}
+
+// CampaignMetricsAggregator.java
+package com.crm.marketing.analytics;
+
+import com.crm.marketing.dto.EngagementEventDTO;
+import org.springframework.stereotype.Component;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+// Per-campaign, per-minute counters in LongAdders, so ingest threads do not contend on hot campaigns; a late event
+// racing with its bucket's eviction can be lost
+@Component
+public class CampaignMetricsAggregator {
+    public record BucketKey(long campaignId, long minute) {
+    }
+
+    private static final int RETENTION_MINUTES = 5;
+
+    private final Map<BucketKey, LongAdder[]> buckets = new ConcurrentHashMap<>();
+
+    public void record(long campaignId, EngagementEventDTO.Type type, long timestamp, long count) {
+        BucketKey key = new BucketKey(campaignId, timestamp / 60_000);
+        LongAdder[] counters = buckets.get(key);
+        if (counters == null) {
+            counters = buckets.computeIfAbsent(key, k -> new LongAdder[] {new LongAdder(), new LongAdder(), new LongAdder()});
+        }
+        counters[type.ordinal()].add(count);
+    }
+
+    // Returns and resets the counts recorded since the previous drain, as {sends, opens, clicks} per bucket
+    public Map<BucketKey, long[]> drain() {
+        long oldestRetained = System.currentTimeMillis() / 60_000 - RETENTION_MINUTES;
+        Map<BucketKey, long[]> drained = new HashMap<>();
+        Iterator<Map.Entry<BucketKey, LongAdder[]>> entries = buckets.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<BucketKey, LongAdder[]> entry = entries.next();
+            if (entry.getKey().minute() < oldestRetained) {
+                entries.remove();
+            }
+            LongAdder[] counters = entry.getValue();
+            long[] counts = {counters[0].sumThenReset(), counters[1].sumThenReset(), counters[2].sumThenReset()};
+            if (counts[0] != 0 || counts[1] != 0 || counts[2] != 0) {
+                drained.put(entry.getKey(), counts);
+            }
+        }
+        return drained;
+    }
+
+    public void restore(Map<BucketKey, long[]> drained) {
+        drained.forEach((key, counts) -> {
+            for (EngagementEventDTO.Type type : EngagementEventDTO.Type.values()) {
+                if (counts[type.ordinal()] != 0) {
+                    record(key.campaignId(), type, key.minute() * 60_000, counts[type.ordinal()]);
+                }
+            }
+        });
+    }
+
+    // Counts not yet drained for one campaign in the minutes (since the epoch) accepted by the filter,
+    // as {sends, opens, clicks}
+    public long[] pending(long campaignId, LongPredicate minuteFilter) {
+        long[] totals = new long[3];
+        buckets.forEach((key, counters) -> {
+            if (key.campaignId() == campaignId && minuteFilter.test(key.minute())) {
+                for (int i = 0; i < 3; i++) {
+                    totals[i] += counters[i].sum();
+                }
+            }
+        });
+        return totals;
+    }
+}
+
+// HierarchicalTimerWheel.java
+package com.crm.marketing.scheduling;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Deadlines beyond a level's span go to a coarser overflow level and are pushed down as it is reached; timers fire
+// on the first advance() at or after their deadline. Not thread-safe
+public class HierarchicalTimerWheel<T> {
+    private record Entry<T>(long deadlineMs, T task) {
+    }
+
+    private static class Level<T> {
+        private final long tickMs;
+        private final int wheelSize;
+        private final List<List<Entry<T>>> buckets;
+        // Start of the first bucket that has not been pushed down yet
+        private long startTime;
+        private Level<T> overflow;
+
+        Level(long tickMs, int wheelSize, long startTime) {
+            this.tickMs = tickMs;
+            this.wheelSize = wheelSize;
+            this.startTime = startTime;
+            this.buckets = new ArrayList<>(wheelSize);
+            for (int i = 0; i < wheelSize; i++) {
+                buckets.add(new ArrayList<>());
+            }
+        }
+
+        // Returns false when the entry's bucket has already been pushed down
+        boolean insert(Entry<T> entry) {
+            if (entry.deadlineMs() < startTime) {
+                return false;
+            }
+            long span = tickMs * wheelSize;
+            if (entry.deadlineMs() < startTime + span) {
+                buckets.get(index(entry.deadlineMs())).add(entry);
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level<>(span, wheelSize, startTime - startTime % span + span);
+            }
+            return overflow.insert(entry);
+        }
+
+        void pushDown(long time, Consumer<Entry<T>> sink) {
+            while (startTime <= time) {
+                List<Entry<T>> bucket = buckets.get(index(startTime));
+                if (!bucket.isEmpty()) {
+                    buckets.set(index(startTime), new ArrayList<>());
+                    bucket.forEach(sink);
+                }
+                startTime += tickMs;
+                if (overflow != null) {
+                    overflow.pushDown(startTime, entry -> {
+                        if (!insert(entry)) {
+                            sink.accept(entry);
+                        }
+                    });
+                }
+            }
+        }
+
+        private int index(long time) {
+            return (int) ((time / tickMs) % wheelSize);
+        }
+    }
+
+    private final Level<T> root;
+    // Entries whose tick has started but whose deadline may not have passed yet
+    private final List<Entry<T>> current = new ArrayList<>();
+    private int size;
+
+    public HierarchicalTimerWheel(long tickMs, int wheelSize, long startMs) {
+        this.root = new Level<>(tickMs, wheelSize, startMs - startMs % tickMs);
+    }
+
+    public void add(long deadlineMs, T task) {
+        Entry<T> entry = new Entry<>(deadlineMs, task);
+        if (!root.insert(entry)) {
+            current.add(entry);
+        }
+        size++;
+    }
+
+    public void advance(long nowMs, Consumer<T> expired) {
+        root.pushDown(nowMs, current::add);
+        Iterator<Entry<T>> entries = current.iterator();
+        while (entries.hasNext()) {
+            Entry<T> entry = entries.next();
+            if (entry.deadlineMs() <= nowMs) {
+                entries.remove();
+                size--;
+                expired.accept(entry.task());
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+}
+
+// SchedulerProperties.java
+package com.crm.marketing.scheduling;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "crm.scheduler")
+public class SchedulerProperties {
+    private long tickMs = 100;
+    private int wheelSize = 512;
+    // Launches falling due within this window are materialized together
+    private long batchWindowMs = 2000;
+    private int maxBatch = 500;
+    // How often the database is read for launches falling due before the next read
+    private long sweepIntervalMs = 30000;
+    // A launch claimed longer ago than this without finishing is taken to be from a stopped node
+    private long claimTimeoutMs = 300000;
+    // Audience resolution attempts before a launch is marked FAILED; the delay doubles after each failure
+    private int maxAttempts = 5;
+    private long retryBackoffMs = 30000;
+}
+
+// SegmentResolver.java
+package com.crm.marketing.scheduling;
+
+import com.crm.marketing.client.SegmentCustomerClient;
+import com.crm.marketing.dto.CustomerDTO;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// A segment is an interaction tag; blank or "ALL" targets every customer
+@Component
+@RequiredArgsConstructor
+public class SegmentResolver {
+    public static final String ALL = "ALL";
+
+    private final SegmentCustomerClient customerClient;
+
+    // One projected customer-service call per batch, shared by every segment in it
+    public Map<String, List<Long>> resolve(Set<String> segments) {
+        List<CustomerDTO> customers = customerClient.getCustomers("id,interactions");
+        Map<String, List<Long>> audiences = new HashMap<>();
+        for (String segment : segments) {
+            audiences.put(segment, customers.stream()
+                    .filter(customer -> matches(customer, segment))
+                    .map(CustomerDTO::getId)
+                    .collect(Collectors.toList()));
+        }
+        return audiences;
+    }
+
+    private static boolean matches(CustomerDTO customer, String segment) {
+        return segment.isBlank() || ALL.equalsIgnoreCase(segment)
+                || (customer.getInteractions() != null && customer.getInteractions().contains(segment));
+    }
+}
+
+// CampaignLaunchScheduler.java
+package com.crm.marketing.scheduling;
+
+import com.crm.marketing.analytics.CampaignMetricsAggregator;
+import com.crm.marketing.dto.EngagementEventDTO;
+import com.crm.marketing.entity.Campaign;
+import com.crm.marketing.repository.CampaignRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+// The database is the durable schedule, swept into the timer wheel; due launches are batched over batchWindowMs and
+// campaigns in a batch share each targetSegment's resolution
+@Slf4j
+@Component
+@EnableConfigurationProperties(SchedulerProperties.class)
+public class CampaignLaunchScheduler {
+    private final CampaignRepository repository;
+    private final SegmentResolver segmentResolver;
+    private final CampaignMetricsAggregator metricsAggregator;
+    private final SchedulerProperties properties;
+    private final TransactionTemplate transactionTemplate;
+    private final HierarchicalTimerWheel<Long> wheel;
+    private final BlockingQueue<Long> due = new LinkedBlockingQueue<>();
+    // One thread ticks the wheel while the other sweeps the database
+    private final ScheduledExecutorService timers = Executors.newScheduledThreadPool(2,
+            runnable -> daemon(runnable, "campaign-launch-timer"));
+    private Thread launcher;
+
+    public CampaignLaunchScheduler(CampaignRepository repository, SegmentResolver segmentResolver,
+                                   CampaignMetricsAggregator metricsAggregator, SchedulerProperties properties,
+                                   PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.segmentResolver = segmentResolver;
+        this.metricsAggregator = metricsAggregator;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.wheel = new HierarchicalTimerWheel<>(properties.getTickMs(), properties.getWheelSize(), System.currentTimeMillis());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        timers.scheduleWithFixedDelay(this::sweep, 0, properties.getSweepIntervalMs(), TimeUnit.MILLISECONDS);
+        timers.scheduleAtFixedRate(this::tick, properties.getTickMs(), properties.getTickMs(), TimeUnit.MILLISECONDS);
+        launcher = daemon(this::runLauncher, "campaign-launcher");
+        launcher.start();
+    }
+
+    public void schedule(Long campaignId, Instant launchAt) {
+        synchronized (wheel) {
+            wheel.add(launchAt.toEpochMilli(), campaignId);
+        }
+    }
+
+    private void sweep() {
+        try {
+            Instant now = Instant.now();
+            // A launch whose node stopped mid-way may have been sent already and is sent again
+            Integer released = transactionTemplate.execute(
+                    status -> repository.releaseStaleClaims(now.minusMillis(properties.getClaimTimeoutMs())));
+            if (released != null && released > 0) {
+                log.warn("Rescheduled {} campaign launches left unfinished by a stopped node", released);
+            }
+            List<CampaignRepository.ScheduledLaunch> upcoming = transactionTemplate.execute(
+                    status -> repository.findLaunchesDueBefore(now.plusMillis(properties.getSweepIntervalMs())));
+            synchronized (wheel) {
+                upcoming.forEach(launch -> wheel.add(
+                        dueAt(launch.getLaunchAt(), launch.getNextAttemptAt()).toEpochMilli(), launch.getId()));
+            }
+            log.debug("Loaded {} upcoming campaign launches", upcoming.size());
+        } catch (RuntimeException e) {
+            // Thrown out of the executor it would cancel every later sweep
+            log.error("Campaign launch sweep failed", e);
+        }
+    }
+
+    private static Instant dueAt(Instant launchAt, Instant nextAttemptAt) {
+        return nextAttemptAt != null && nextAttemptAt.isAfter(launchAt) ? nextAttemptAt : launchAt;
+    }
+
+    private void tick() {
+        List<Long> expired = new ArrayList<>();
+        synchronized (wheel) {
+            wheel.advance(System.currentTimeMillis(), expired::add);
+        }
+        due.addAll(expired);
+    }
+
+    private void runLauncher() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<Long> batch = new ArrayList<>();
+                batch.add(due.take());
+                long windowEnd = System.currentTimeMillis() + properties.getBatchWindowMs();
+                while (batch.size() < properties.getMaxBatch()) {
+                    Long next = due.poll(windowEnd - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                launchBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("Campaign launch batch failed", e);
+            }
+        }
+    }
+
+    private void launchBatch(List<Long> campaignIds) {
+        Instant claimTime = Instant.now();
+        List<Campaign> claimed = transactionTemplate.execute(status -> campaignIds.stream()
+                .filter(id -> repository.claimLaunch(id, claimTime) == 1)
+                .map(id -> repository.findById(id).orElse(null))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        if (claimed.isEmpty()) {
+            return;
+        }
+        Map<String, List<Campaign>> bySegment = claimed.stream()
+                .collect(Collectors.groupingBy(campaign -> Objects.requireNonNullElse(campaign.getTargetSegment(), "")));
+        Map<String, List<Long>> audiences;
+        try {
+            audiences = segmentResolver.resolve(bySegment.keySet());
+        } catch (RuntimeException e) {
+            log.warn("Audience resolution failed for {} campaigns", claimed.size(), e);
+            finish(claimed, this::retryOrFail);
+            claimed.stream()
+                    .filter(campaign -> campaign.getStatus() == Campaign.Status.SCHEDULED)
+                    .forEach(campaign -> schedule(campaign.getId(), campaign.getNextAttemptAt()));
+            return;
+        }
+        finish(claimed, campaign -> {
+            campaign.setAudienceSize(audiences.get(Objects.requireNonNullElse(campaign.getTargetSegment(), "")).size());
+            campaign.setLaunchedAt(Instant.now());
+            campaign.setNextAttemptAt(null);
+            campaign.setStatus(Campaign.Status.LAUNCHED);
+        });
+        long now = System.currentTimeMillis();
+        claimed.forEach(campaign -> metricsAggregator.record(campaign.getId(), EngagementEventDTO.Type.SEND, now,
+                campaign.getAudienceSize()));
+        log.info("Launched {} campaigns across {} segments", claimed.size(), bySegment.size());
+    }
+
+    private void retryOrFail(Campaign campaign) {
+        int attempts = Objects.requireNonNullElse(campaign.getLaunchAttempts(), 0) + 1;
+        campaign.setLaunchAttempts(attempts);
+        campaign.setClaimedAt(null);
+        if (attempts >= properties.getMaxAttempts()) {
+            log.error("Campaign {} failed to launch after {} attempts", campaign.getId(), attempts);
+            campaign.setStatus(Campaign.Status.FAILED);
+            return;
+        }
+        long backoffMs = properties.getRetryBackoffMs() << Math.min(attempts - 1, 20);
+        campaign.setNextAttemptAt(Instant.now().plusMillis(backoffMs));
+        campaign.setStatus(Campaign.Status.SCHEDULED);
+    }
+
+    // A failure here leaves the batch LAUNCHING until its claims time out and the sweep reschedules it
+    private void finish(List<Campaign> campaigns, Consumer<Campaign> update) {
+        campaigns.forEach(update);
+        transactionTemplate.executeWithoutResult(status -> repository.saveAll(campaigns));
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @PreDestroy
+    public void stop() {
+        timers.shutdownNow();
+        if (launcher != null) {
+            launcher.interrupt();
+        }
+    }
+}
+
+// CampaignAnalyticsController.java
+package com.crm.marketing.controller;
+
+import com.crm.marketing.dto.CampaignFunnelDTO;
+import com.crm.marketing.dto.EngagementEventDTO;
+import com.crm.marketing.entity.CampaignMetric;
+import com.crm.marketing.service.CampaignAnalyticsService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+
+@RestController
+@RequestMapping("/marketing/campaigns")
+@RequiredArgsConstructor
+public class CampaignAnalyticsController {
+    private final CampaignAnalyticsService analyticsService;
+
+    @PostMapping("/events")
+    public ResponseEntity<Void> recordEvents(@RequestBody List<EngagementEventDTO> events) {
+        // Checked before any event is counted, so a rejected batch can be corrected and sent again as a whole
+        for (EngagementEventDTO event : events) {
+            if (event.getCampaignId() == null || event.getType() == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "campaignId and type are required");
+            }
+        }
+        analyticsService.recordEvents(events);
+        return ResponseEntity.accepted().build();
+    }
+
+    @GetMapping("/{id}/metrics")
+    public ResponseEntity<CampaignFunnelDTO> getFunnel(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "HOUR") CampaignMetric.Granularity granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        return ResponseEntity.ok(analyticsService.getFunnel(id, granularity,
+                from != null ? from : Instant.EPOCH, to != null ? to : Instant.now()));
+    }
+}
+
+// DataSourceConfig.java
+package com.crm.marketing.config;
+
+import com.crm.common.routing.ReadWriteRoutingDataSource;
+import com.crm.common.routing.ReadYourWritesTracker;
+import com.crm.common.routing.ReplicaLagMonitor;
+import com.crm.common.routing.ReplicationProperties;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import javax.sql.DataSource;
+
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties primaryProperties, ReplicationProperties replication,
+                                 ReadYourWritesTracker readYourWrites, ReplicaLagMonitor lagMonitor) {
+        DataSource primary = primaryProperties.initializeDataSourceBuilder().build();
+        ReplicationProperties.Replica replicaProperties = replication.getReplica();
+        if (replicaProperties.getUrl() == null) {
+            return primary;
+        }
+        DataSource replica = DataSourceBuilder.create()
+                .url(replicaProperties.getUrl())
+                .username(replicaProperties.getUsername() != null ? replicaProperties.getUsername() : primaryProperties.getUsername())
+                .password(replicaProperties.getPassword() != null ? replicaProperties.getPassword() : primaryProperties.getPassword())
+                .driverClassName(primaryProperties.determineDriverClassName())
+                .build();
+        lagMonitor.register("marketing", primary, replica);
+        // Defers the physical connection until the first statement, after the read-only flag is known
+        return new LazyConnectionDataSourceProxy(
+                new ReadWriteRoutingDataSource("marketing", primary, replica, readYourWrites, lagMonitor));
+    }
+}
+
+// FastStartConfig.java
+package com.crm.marketing.config;
+
+import com.crm.marketing.scheduling.CampaignLaunchScheduler;
+import com.crm.marketing.service.impl.CampaignAnalyticsServiceImpl;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Beans with scheduled or background work must start with the context even under spring.main.lazy-initialization
+@Configuration
+public class FastStartConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter eagerScheduledBeans() {
+        return (beanName, beanDefinition, beanType) -> CampaignAnalyticsServiceImpl.class.isAssignableFrom(beanType)
+                || CampaignLaunchScheduler.class.isAssignableFrom(beanType);
+    }
+}
+
+// CustomerCodecBenchmark.java (src/test/java; run its main method)
+package com.crm.marketing.client;
+
+import com.crm.marketing.dto.CustomerDTO;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Payload size and decode time for 100k customers, full JSON against Smile and ?fields= projections
+public class CustomerCodecBenchmark {
+    private static final int CUSTOMERS = 100_000;
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+    private static final List<String> TAGS = List.of("newsletter", "webinar", "trial", "demo", "purchase", "support",
+            "renewal", "churn-risk", "event", "referral");
+    private static final TypeReference<List<CustomerDTO>> CUSTOMER_LIST = new TypeReference<>() {
+    };
+
+    public static void main(String[] args) throws IOException {
+        List<CustomerDTO> customers = customers(new Random(42));
+        // customer-service writes full customers with nulls included and projections without them
+        ObjectMapper json = new ObjectMapper();
+        ObjectMapper smile = new SmileMapper();
+        ObjectMapper projectedJson = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        ObjectMapper projectedSmile = new SmileMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        List<CustomerDTO> idEmail = project(customers, c -> CustomerDTO.builder().id(c.getId()).email(c.getEmail()).build());
+        List<CustomerDTO> idInteractions = project(customers,
+                c -> CustomerDTO.builder().id(c.getId()).interactions(c.getInteractions()).build());
+
+        measure("JSON, all fields", json, customers);
+        measure("Smile, all fields", smile, customers);
+        measure("JSON, fields=id,email", projectedJson, idEmail);
+        measure("Smile, fields=id,email", projectedSmile, idEmail);
+        measure("JSON, fields=id,interactions", projectedJson, idInteractions);
+        measure("Smile, fields=id,interactions", projectedSmile, idInteractions);
+    }
+
+    private static void measure(String label, ObjectMapper mapper, List<CustomerDTO> customers) throws IOException {
+        byte[] payload = mapper.writeValueAsBytes(customers);
+        long[] nanos = new long[RUNS];
+        for (int run = -WARMUP; run < RUNS; run++) {
+            long start = System.nanoTime();
+            List<CustomerDTO> decoded = mapper.readValue(payload, CUSTOMER_LIST);
+            long elapsed = System.nanoTime() - start;
+            if (decoded.size() != customers.size()) {
+                throw new IllegalStateException(label + " decoded " + decoded.size() + " customers");
+            }
+            if (run >= 0) {
+                nanos[run] = elapsed;
+            }
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-30s %,12d bytes %8.1f ms decode (median of %d)%n", label, payload.length,
+                nanos[RUNS / 2] / 1e6, RUNS);
+    }
+
+    private static List<CustomerDTO> customers(Random random) {
+        List<CustomerDTO> customers = new ArrayList<>(CUSTOMERS);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            long id = 7_000_000_000_000_000L + i * 4099L;
+            List<String> interactions = new ArrayList<>();
+            for (int n = random.nextInt(9); n > 0; n--) {
+                interactions.add(TAGS.get(random.nextInt(TAGS.size())));
+            }
+            customers.add(CustomerDTO.builder()
+                    .id(id)
+                    .name("Customer " + i)
+                    .email("customer" + i + "@example.com")
+                    .phone(String.format("+1-555-%07d", i))
+                    .interactions(interactions)
+                    .build());
+        }
+        return customers;
+    }
+
+    private static List<CustomerDTO> project(List<CustomerDTO> customers, Function<CustomerDTO, CustomerDTO> fields) {
+        return customers.stream().map(fields).collect(Collectors.toList());
+    }
+}
+
+// CampaignMetricsAggregatorTest.java (src/test/java)
+package com.crm.marketing.analytics;
+
+import com.crm.marketing.dto.EngagementEventDTO;
+import org.junit.jupiter.api.Test;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CampaignMetricsAggregatorTest {
+    private final CampaignMetricsAggregator aggregator = new CampaignMetricsAggregator();
+
+    @Test
+    void drainReturnsEachCountOnce() {
+        long now = System.currentTimeMillis();
+        aggregator.record(1, EngagementEventDTO.Type.SEND, now, 3);
+        aggregator.record(1, EngagementEventDTO.Type.OPEN, now, 2);
+        aggregator.record(2, EngagementEventDTO.Type.CLICK, now, 1);
+
+        Map<CampaignMetricsAggregator.BucketKey, long[]> drained = aggregator.drain();
+
+        assertThat(drained.get(new CampaignMetricsAggregator.BucketKey(1, now / 60_000))).containsExactly(3, 2, 0);
+        assertThat(drained.get(new CampaignMetricsAggregator.BucketKey(2, now / 60_000))).containsExactly(0, 0, 1);
+        assertThat(aggregator.drain()).isEmpty();
+    }
+
+    @Test
+    void restoredCountsAreDrainedAgain() {
+        long now = System.currentTimeMillis();
+        aggregator.record(1, EngagementEventDTO.Type.SEND, now, 5);
+        Map<CampaignMetricsAggregator.BucketKey, long[]> failedFlush = aggregator.drain();
+        aggregator.record(1, EngagementEventDTO.Type.SEND, now, 1);
+
+        aggregator.restore(failedFlush);
+
+        assertThat(aggregator.drain().get(new CampaignMetricsAggregator.BucketKey(1, now / 60_000)))
+                .containsExactly(6, 0, 0);
+    }
+
+    @Test
+    void pendingCountsOnlyTheCampaignAndMinutesAsked() {
+        long now = System.currentTimeMillis();
+        aggregator.record(1, EngagementEventDTO.Type.OPEN, now, 4);
+        aggregator.record(1, EngagementEventDTO.Type.OPEN, now - 120_000, 7);
+        aggregator.record(2, EngagementEventDTO.Type.OPEN, now, 9);
+
+        assertThat(aggregator.pending(1, minute -> minute == now / 60_000)).containsExactly(0, 4, 0);
+        assertThat(aggregator.pending(1, minute -> true)).containsExactly(0, 11, 0);
+    }
+
+    @Test
+    void concurrentRecordingLosesNothingWhileDraining() {
+        long now = System.currentTimeMillis();
+        int threads = 4;
+        int perThread = 50_000;
+        long[] drained = new long[3];
+        AtomicBoolean recording = new AtomicBoolean(true);
+        CompletableFuture<Void> drainer = CompletableFuture.runAsync(() -> {
+            while (recording.get()) {
+                add(drained, aggregator.drain());
+            }
+        });
+        CompletableFuture.allOf(IntStream.range(0, threads)
+                .mapToObj(thread -> CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        aggregator.record(i % 10, EngagementEventDTO.Type.values()[i % 3], now, 1);
+                    }
+                }))
+                .toArray(CompletableFuture[]::new)).join();
+        recording.set(false);
+        drainer.join();
+        add(drained, aggregator.drain());
+
+        long expected = (long) threads * perThread;
+        assertThat(drained[0] + drained[1] + drained[2]).isEqualTo(expected);
+    }
+
+    private static void add(long[] totals, Map<CampaignMetricsAggregator.BucketKey, long[]> drained) {
+        drained.values().forEach(counts -> {
+            for (int i = 0; i < 3; i++) {
+                totals[i] += counts[i];
+            }
+        });
+    }
+}
+
+// CampaignAnalyticsControllerTest.java (src/test/java)
+package com.crm.marketing.controller;
+
+import com.crm.marketing.service.CampaignAnalyticsService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class CampaignAnalyticsControllerTest {
+    private final CampaignAnalyticsService analyticsService = mock(CampaignAnalyticsService.class);
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(new CampaignAnalyticsController(analyticsService)).build();
+
+    @Test
+    void acceptsCompleteEvents() throws Exception {
+        mvc.perform(post("/marketing/campaigns/events")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"campaignId\":1,\"type\":\"OPEN\"},{\"campaignId\":1,\"type\":\"CLICK\",\"timestamp\":0}]"))
+                .andExpect(status().isAccepted());
+
+        verify(analyticsService).recordEvents(anyList());
+    }
+
+    @Test
+    void rejectsABatchWithAnIncompleteEventAsBadRequest() throws Exception {
+        mvc.perform(post("/marketing/campaigns/events")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"campaignId\":1,\"type\":\"OPEN\"},{\"campaignId\":1}]"))
+                .andExpect(status().isBadRequest());
+
+        verify(analyticsService, never()).recordEvents(anyList());
+    }
+}
+
+// CustomerClientConfigTest.java (src/test/java)
+package com.crm.marketing.config;
+
+import feign.Request;
+import feign.RequestTemplate;
+import feign.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerClientConfigTest {
+    private final CustomerClientConfig config = new CustomerClientConfig();
+
+    @AfterEach
+    void clearRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void forwardsTheCallersAuthorizationHeader() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer user-token");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        RequestTemplate template = new RequestTemplate();
+
+        config.callerAuthorizationInterceptor().apply(template);
+
+        assertThat(template.headers().get(HttpHeaders.AUTHORIZATION)).containsExactly("Bearer user-token");
+    }
+
+    @Test
+    void addsNoCredentialsOutsideARequest() {
+        RequestTemplate template = new RequestTemplate();
+
+        config.callerAuthorizationInterceptor().apply(template);
+
+        assertThat(template.headers()).doesNotContainKey(HttpHeaders.AUTHORIZATION);
+    }
+
+    @Test
+    void passesAForbiddenCallerOnAsForbidden() {
+        Exception error = config.customerClientErrorDecoder().decode("CustomerClient#getAllCustomers()", response(403));
+
+        assertThat(error).isInstanceOf(ResponseStatusException.class);
+        assertThat(((ResponseStatusException) error).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
+    private static Response response(int status) {
+        Request request = Request.create(Request.HttpMethod.GET, "/customers", Map.of(), null, StandardCharsets.UTF_8, new RequestTemplate());
+        return Response.builder().status(status).request(request).headers(Map.of()).build();
+    }
+}
+
+// CampaignMetricsBenchmark.java (src/test/java; run its main method)
+package com.crm.marketing.analytics;
+
+import com.crm.marketing.dto.EngagementEventDTO;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Engagement ingestion offered at 100k events/s in POST-sized batches, drained every second like the flush
+public class CampaignMetricsBenchmark {
+    private static final int RATE = 100_000;
+    private static final int SECONDS = 10;
+    private static final int THREADS = 4;
+    private static final int BATCH = 100;
+    private static final int CAMPAIGNS = 1_000;
+    private static final TypeReference<List<EngagementEventDTO>> EVENT_LIST = new TypeReference<>() {
+    };
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<byte[]> bodies = bodies(objectMapper, new Random(42));
+        CampaignMetricsAggregator aggregator = new CampaignMetricsAggregator();
+
+        // Warm-up at full speed, also giving the aggregator's best case on this machine
+        long warmupEvents = 0;
+        long warmupStart = System.nanoTime();
+        while (System.nanoTime() - warmupStart < TimeUnit.SECONDS.toNanos(3)) {
+            warmupEvents += ingest(objectMapper, aggregator, bodies.get((int) (warmupEvents / BATCH % bodies.size())));
+        }
+        System.out.printf("Unpaced, one thread: %,.0f events/s decoded and recorded%n",
+                warmupEvents / ((System.nanoTime() - warmupStart) / 1e9));
+        aggregator.drain();
+
+        int batchesPerThread = RATE * SECONDS / BATCH / THREADS;
+        long[][] latencies = new long[THREADS][batchesPerThread];
+        LongAdder drainedEvents = new LongAdder();
+        List<Long> drainNanos = new ArrayList<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread flusher = new Thread(() -> {
+            while (running.get()) {
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                drainedEvents.add(drain(aggregator, drainNanos));
+            }
+        });
+        flusher.start();
+        Thread[] producers = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            producers[t] = new Thread(() -> {
+                long intervalNanos = TimeUnit.SECONDS.toNanos(1) * BATCH * THREADS / RATE;
+                for (int i = 0; i < batchesPerThread; i++) {
+                    long due = start + i * intervalNanos;
+                    long now = System.nanoTime();
+                    if (due > now) {
+                        LockSupport.parkNanos(due - now);
+                    }
+                    long before = System.nanoTime();
+                    ingest(objectMapper, aggregator, bodies.get((i * THREADS + thread) % bodies.size()));
+                    latencies[thread][i] = System.nanoTime() - before;
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        running.set(false);
+        flusher.join();
+        drainedEvents.add(drain(aggregator, drainNanos));
+
+        long events = (long) THREADS * batchesPerThread * BATCH;
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        long[] drains = drainNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("Offered %,d events/s for %d s in batches of %d from %d threads: %,.0f events/s ingested%n",
+                RATE, SECONDS, BATCH, THREADS, events / (elapsed / 1e9));
+        System.out.printf("Batch decode + record p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6, all[all.length - 1] / 1e6);
+        System.out.printf("%d drains, p50 %.2f ms, max %.2f ms; %,d of %,d events drained%n", drains.length,
+                drains[drains.length / 2] / 1e6, drains[drains.length - 1] / 1e6, drainedEvents.sum(), events);
+    }
+
+    private static int ingest(ObjectMapper objectMapper, CampaignMetricsAggregator aggregator, byte[] body) {
+        try {
+            List<EngagementEventDTO> events = objectMapper.readValue(body, EVENT_LIST);
+            long now = System.currentTimeMillis();
+            for (EngagementEventDTO event : events) {
+                aggregator.record(event.getCampaignId(), event.getType(),
+                        event.getTimestamp() != null ? event.getTimestamp() : now, 1);
+            }
+            return events.size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long drain(CampaignMetricsAggregator aggregator, List<Long> drainNanos) {
+        long before = System.nanoTime();
+        Map<CampaignMetricsAggregator.BucketKey, long[]> drained = aggregator.drain();
+        drainNanos.add(System.nanoTime() - before);
+        return drained.values().stream().mapToLong(counts -> counts[0] + counts[1] + counts[2]).sum();
+    }
+
+    // Most events belong to a few running campaigns: a tenth of the campaigns get nine tenths of the events
+    private static List<byte[]> bodies(ObjectMapper objectMapper, Random random) throws IOException {
+        List<byte[]> bodies = new ArrayList<>();
+        for (int b = 0; b < 1_000; b++) {
+            List<EngagementEventDTO> events = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                long campaignId = random.nextInt(10) < 9 ? random.nextInt(CAMPAIGNS / 10) : random.nextInt(CAMPAIGNS);
+                events.add(EngagementEventDTO.builder()
+                        .campaignId(campaignId)
+                        .type(EngagementEventDTO.Type.values()[random.nextInt(3)])
+                        .build());
+            }
+            bodies.add(objectMapper.writeValueAsBytes(events));
+        }
+        return bodies;
+    }
+}
+
+// HierarchicalTimerWheelTest.java (src/test/java)
+package com.crm.marketing.scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HierarchicalTimerWheelTest {
+
+    @Test
+    void firesOnTheFirstAdvanceAtOrAfterTheDeadline() {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(100, 8, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.add(250, "a");
+
+        wheel.advance(249, fired::add);
+        assertThat(fired).isEmpty();
+        wheel.advance(250, fired::add);
+        assertThat(fired).containsExactly("a");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void firesTimersBeyondTheFirstLevelsSpan() {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(10, 4, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.add(1_000_005, "far");
+
+        wheel.advance(1_000_004, fired::add);
+        assertThat(fired).isEmpty();
+        wheel.advance(1_000_005, fired::add);
+        assertThat(fired).containsExactly("far");
+    }
+
+    @Test
+    void firesAnOverdueTimerOnTheNextAdvance() {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(100, 8, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.advance(5_000, fired::add);
+
+        wheel.add(1_000, "late");
+        wheel.advance(5_001, fired::add);
+
+        assertThat(fired).containsExactly("late");
+    }
+
+    // Random deadlines across several levels, added while the wheel advances by random steps
+    @Test
+    void neverFiresEarlyAndNeverMissesATimer() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            long start = random.nextInt(1_000_000);
+            HierarchicalTimerWheel<Integer> wheel = new HierarchicalTimerWheel<>(10, 8, start);
+            Map<Integer, Long> deadlines = new HashMap<>();
+            // The advance each timer was added after, so it must fire by the one that follows its deadline
+            Map<Integer, Long> addedAfter = new HashMap<>();
+            long now = start;
+            int next = 0;
+            while (now < start + 200_000) {
+                for (int i = random.nextInt(20); i > 0; i--) {
+                    long deadline = now - 50 + (long) (Math.pow(random.nextDouble(), 3) * 100_000);
+                    deadlines.put(next, deadline);
+                    addedAfter.put(next, now);
+                    wheel.add(deadline, next++);
+                }
+                long previous = now;
+                now += 1 + random.nextInt(random.nextBoolean() ? 15 : 500);
+                long advancedTo = now;
+                wheel.advance(advancedTo, task -> {
+                    long deadline = deadlines.remove(task);
+                    assertThat(deadline).as("fired early").isLessThanOrEqualTo(advancedTo);
+                    if (addedAfter.get(task) < previous) {
+                        assertThat(deadline).as("missed by an earlier advance").isGreaterThan(previous);
+                    }
+                });
+            }
+            long end = now + 200_000;
+            wheel.advance(end, task -> assertThat(deadlines.remove(task)).isLessThanOrEqualTo(end));
+
+            assertThat(deadlines).as("never fired").isEmpty();
+            assertThat(wheel.size()).isZero();
+        }
+    }
+}
+
+// ScheduledCampaignBenchmark.java (src/test/java; run its main method)
+package com.crm.marketing.scheduling;
+
+import com.crm.marketing.analytics.CampaignMetricsAggregator;
+import com.crm.marketing.dto.CustomerDTO;
+import com.crm.marketing.entity.Campaign;
+import com.crm.marketing.repository.CampaignRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+// 100k scheduled campaigns: the timer wheel alone over a day, then launched through CampaignLaunchScheduler
+public class ScheduledCampaignBenchmark {
+    private static final int CAMPAIGNS = 100_000;
+    private static final int CUSTOMERS = 10_000;
+    private static final int SEGMENTS = 20;
+    private static final long RESOLVE_MS = 20;
+    private static final long LAUNCH_SPREAD_MS = 60_000;
+
+    public static void main(String[] args) throws Exception {
+        wheel(new Random(42));
+        scheduler(new Random(42));
+    }
+
+    // Simulated time: 100k deadlines spread over 24 hours, advanced every 100 ms like the scheduler's tick
+    private static void wheel(Random random) {
+        long day = TimeUnit.DAYS.toMillis(1);
+        HierarchicalTimerWheel<Integer> wheel = new HierarchicalTimerWheel<>(100, 512, 0);
+        long before = System.nanoTime();
+        for (int i = 0; i < CAMPAIGNS; i++) {
+            wheel.add((long) (random.nextDouble() * day), i);
+        }
+        long addNanos = System.nanoTime() - before;
+        AtomicInteger fired = new AtomicInteger();
+        long maxAdvanceNanos = 0;
+        before = System.nanoTime();
+        for (long now = 100; now <= day; now += 100) {
+            long advanceStart = System.nanoTime();
+            wheel.advance(now, task -> fired.incrementAndGet());
+            maxAdvanceNanos = Math.max(maxAdvanceNanos, System.nanoTime() - advanceStart);
+        }
+        long advanceNanos = System.nanoTime() - before;
+        System.out.printf("Wheel: %,d adds in %.1f ms (%.0f ns each); %,d ticks over 24 h in %.0f ms (max %.2f ms), "
+                        + "%,d of %,d fired%n", CAMPAIGNS, addNanos / 1e6, (double) addNanos / CAMPAIGNS, day / 100,
+                advanceNanos / 1e6, maxAdvanceNanos / 1e6, fired.get(), CAMPAIGNS);
+    }
+
+    // The database is stubbed out and customer-service answers in RESOLVE_MS; campaigns launch within one minute
+    private static void scheduler(Random random) throws InterruptedException {
+        long base = System.currentTimeMillis() + 5_000;
+        Map<Long, Campaign> campaigns = new HashMap<>();
+        for (long id = 1; id <= CAMPAIGNS; id++) {
+            int segment = random.nextInt(SEGMENTS + 1);
+            campaigns.put(id, Campaign.builder()
+                    .id(id)
+                    .targetSegment(segment == SEGMENTS ? SegmentResolver.ALL : "segment-" + segment)
+                    .launchAt(Instant.ofEpochMilli(base + (long) (random.nextDouble() * LAUNCH_SPREAD_MS)))
+                    .status(Campaign.Status.SCHEDULED)
+                    .build());
+        }
+        long[] latenessMs = new long[CAMPAIGNS];
+        AtomicInteger launched = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        CampaignRepository repository = mock(CampaignRepository.class, withSettings().stubOnly());
+        when(repository.findLaunchesDueBefore(any())).thenReturn(List.of());
+        when(repository.claimLaunch(any(), any())).thenReturn(1);
+        when(repository.findById(any())).thenAnswer(invocation -> Optional.of(campaigns.get(invocation.<Long>getArgument(0))));
+        when(repository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Campaign> saved = invocation.getArgument(0);
+            batches.incrementAndGet();
+            for (Campaign campaign : saved) {
+                latenessMs[(int) (campaign.getId() - 1)] = campaign.getLaunchedAt().toEpochMilli() - campaign.getLaunchAt().toEpochMilli();
+            }
+            launched.addAndGet(saved.size());
+            return saved;
+        });
+
+        List<CustomerDTO> customers = customers(random);
+        AtomicInteger resolutions = new AtomicInteger();
+        SegmentResolver segmentResolver = new SegmentResolver(fields -> {
+            resolutions.incrementAndGet();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RESOLVE_MS));
+            return customers;
+        });
+        SchedulerProperties properties = new SchedulerProperties();
+        CampaignLaunchScheduler scheduler = new CampaignLaunchScheduler(repository, segmentResolver,
+                new CampaignMetricsAggregator(), properties, mock(PlatformTransactionManager.class, withSettings().stubOnly()));
+        scheduler.start();
+
+        long before = System.nanoTime();
+        campaigns.values().forEach(campaign -> scheduler.schedule(campaign.getId(), campaign.getLaunchAt()));
+        long scheduleNanos = System.nanoTime() - before;
+        long deadline = base + LAUNCH_SPREAD_MS + TimeUnit.MINUTES.toMillis(2);
+        while (launched.get() < CAMPAIGNS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        scheduler.stop();
+
+        long[] sorted = Arrays.stream(latenessMs).sorted().toArray();
+        System.out.printf("Scheduler: %,d campaigns scheduled in %.0f ms; %,d of %,d launched in %,d batches "
+                        + "(tick %d ms, window %d ms, max %d)%n", CAMPAIGNS, scheduleNanos / 1e6, launched.get(), CAMPAIGNS,
+                batches.get(), properties.getTickMs(), properties.getBatchWindowMs(), properties.getMaxBatch());
+        System.out.printf("Audience resolutions: %,d (%,d without batching); launch delay p50 %d ms, p99 %d ms, max %d ms%n",
+                resolutions.get(), CAMPAIGNS, sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.99)],
+                sorted[sorted.length - 1]);
+    }
+
+    // Each customer carries up to three of the segments' interaction tags
+    private static List<CustomerDTO> customers(Random random) {
+        List<CustomerDTO> customers = new ArrayList<>(CUSTOMERS);
+        for (long id = 1; id <= CUSTOMERS; id++) {
+            List<String> interactions = new ArrayList<>();
+            for (int i = random.nextInt(4); i > 0; i--) {
+                interactions.add("segment-" + random.nextInt(SEGMENTS));
+            }
+            customers.add(CustomerDTO.builder().id(id).interactions(interactions).build());
+        }
+        return customers;
     }
 }
 
@@ -181,7 +1939,15 @@ spring.datasource.username=root
 spring.datasource.password=your_password
 spring.datasource.driver-class-name=com.mysql.cj.jdbc.Driver
 
+# Read replica for read-only transactions; connections must not be held across a request's transactions
+crm.replication.replica.url=jdbc:mysql://localhost:3316/marketing_db?useSSL=false&serverTimezone=UTC
+crm.replication.max-lag-ms=2000
+crm.replication.sticky-window-ms=5000
+spring.jpa.open-in-view=false
+
 spring.jpa.hibernate.ddl-auto=update
+# schema.sql holds the tables that are not entities (replication_heartbeat)
+spring.sql.init.mode=always
 spring.jpa.show-sql=true
 spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.MySQL8Dialect
 
@@ -189,11 +1955,69 @@ spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.MySQL8Dialect
 eureka.client.service-url.defaultZone=http://localhost:8761/eureka/
 eureka.instance.prefer-ip-address=true
 
-# Spring Cloud Config
+eureka.client.eureka-server-connect-timeout-seconds=2
+eureka.client.eureka-server-read-timeout-seconds=3
+
+# Spring Cloud Config (optional with short timeouts: a slow server falls back to the local snapshot)
+spring.config.import=optional:configserver:http://localhost:8888
 spring.cloud.config.uri=http://localhost:8888
+spring.cloud.config.fail-fast=false
+spring.cloud.config.request-connect-timeout=1000
+spring.cloud.config.request-read-timeout=2000
+
+# Last-known-good config and registry snapshots
+crm.snapshot.directory=/var/lib/marketing-service/snapshot
+crm.snapshot.registry-refresh-ms=5000
+
+# Campaign engagement counters are flushed to campaign_metric this often
+crm.analytics.flush-interval-ms=10000
+
+# Scheduled campaign launches (timer wheel; launches due within the batch window share audience resolution)
+crm.scheduler.tick-ms=100
+crm.scheduler.wheel-size=512
+crm.scheduler.batch-window-ms=2000
+crm.scheduler.max-batch=500
+# Due launches are read from the database this often; claims older than the timeout are rescheduled
+crm.scheduler.sweep-interval-ms=30000
+crm.scheduler.claim-timeout-ms=300000
+# Failed audience resolutions are retried after 30s, 60s, 120s, ... before the campaign is marked FAILED
+crm.scheduler.max-attempts=5
+crm.scheduler.retry-backoff-ms=30000
+
+# auth-service account for audience resolution (SegmentCustomerClient); GET /customers requires ADMIN, SALES or SUPPORT.
+# User-facing calls forward the caller's own token instead.
+crm.service-account.username=marketing-service
+crm.service-account.password=your_password
+crm.service-account.refresh-before-expiry-ms=60000
+
+# Latency-aware client-side load balancing (power of two choices, outlier ejection)
+crm.loadbalancer.ewma-alpha=0.3
+crm.loadbalancer.failure-threshold=5
+crm.loadbalancer.ejection-ms=30000
+crm.loadbalancer.outlier-factor=3.0
+crm.loadbalancer.decay-ms=10000
+crm.loadbalancer.in-flight-timeout-ms=30000
 
 # Feign Client logging
 logging.level.com.crm.marketing.client=DEBUG
+
+// application-fast-start.properties (activate with --spring.profiles.active=fast-start; see README "Fast start")
+spring.main.lazy-initialization=true
+spring.jmx.enabled=false
+spring.data.jpa.repositories.bootstrap-mode=deferred
+spring.jpa.properties.hibernate.boot.allow_jdbc_metadata_access=false
+spring.jpa.hibernate.ddl-auto=none
+eureka.client.initial-instance-info-replication-interval-seconds=5
+
+// schema.sql
+-- Stamped on the primary and read back from the replica by crm-common's ReplicaLagMonitor
+create table if not exists replication_heartbeat (
+    id integer not null,
+    beat_at bigint not null,
+    primary key (id)
+) engine=InnoDB;
+
+# dependencies in pom.xml include: spring-cloud-starter-openfeign, jackson-dataformat-smile (CustomerClient binary encoding), crm-common; test: spring-boot-starter-test
 ```
 
 Let me know if you’d like help testing inter-service communication or setting up Swagger docs or resilience (like Retry/Fallback with Resilience4J).
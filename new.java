@@ -240,6 +240,29 @@ public class AuthServiceApplication {
         SpringApplication.run(AuthServiceApplication.class, args);
     }
 }
+✅ Step 10b: Fast-start profile
+Add application-fast-start.yml next to application.yml and start with --spring.profiles.active=fast-start (build steps in README "Fast start"):
+
+yaml
+Copy
+Edit
+spring:
+  main:
+    lazy-initialization: true
+  jmx:
+    enabled: false
+  jpa:
+    database-platform: org.hibernate.dialect.MySQLDialect # required once JDBC metadata access is off
+    properties:
+      hibernate:
+        boot:
+          allow_jdbc_metadata_access: false
+    hibernate:
+      ddl-auto: none
+
+eureka:
+  client:
+    initial-instance-info-replication-interval-seconds: 5
 ✅ Step 11: Protect Other Microservices
 In Customer / Marketing services:
 
@@ -65,6 +65,43 @@ eureka:
   client:
     service-url:
       defaultZone: http://localhost:8761/eureka
+    eureka-server-connect-timeout-seconds: 2
+    eureka-server-read-timeout-seconds: 3
+
+crm:
+  snapshot: # last-known-good instance lists, so routes resolve without waiting on Eureka
+    directory: /var/lib/gateway-service/snapshot
+    registry-refresh-ms: 5000
+  loadbalancer: # latency-aware selection for the lb:// routes above
+    ewma-alpha: 0.3
+    failure-threshold: 5
+    ejection-ms: 30000
+    outlier-factor: 3.0
+    decay-ms: 10000
+    in-flight-timeout-ms: 30000 # the gateway reports no completion for cancelled requests
+
+
+
+✅ Step 3b: Latency-aware load balancing for lb:// routes
+Add the crm-common dependency to gateway-service. Its LatencyAwareLoadBalancerAutoConfiguration replaces
+round-robin with power-of-two-choices over per-instance EWMA latency and in-flight counts, ejects instances that
+keep failing, and serves instance lists from the registry snapshot; the crm.loadbalancer settings above tune it.
+
+
+
+application-fast-start.yml in gateway-service (start with --spring.profiles.active=fast-start, see README "Fast start"):
+yaml
+Copy
+Edit
+spring:
+  main:
+    lazy-initialization: true
+  jmx:
+    enabled: false
+
+eureka:
+  client:
+    initial-instance-info-replication-interval-seconds: 5
 
 
 